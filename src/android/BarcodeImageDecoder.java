@@ -0,0 +1,528 @@
+package com.mccbarcode;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Decodes barcodes from still images passed to decode()
+ * Large photos can be split into overlapping tiles so the full-resolution
+ * bitmap is never resident; tiles are decoded in parallel on a fork/join pool
+ * Bitmaps and luminance buffers come from the shared DecodeMemoryPool
+ */
+public class BarcodeImageDecoder {
+
+    private static final String TAG = "BarcodeImageDecoder";
+
+    private static final int DEFAULT_MAX_DIMENSION = 2048;
+    private static final int DEFAULT_TILE_SIZE = 1024;
+    private static final double DEFAULT_TILE_OVERLAP = 0.2;
+    private static final int MIN_TILE_SIZE = 256;
+
+    private final Context context;
+    private final DecodeMemoryPool memoryPool;
+    private final Set<Integer> enabledFormats = new HashSet<>();
+    private final ScanRuleChain ruleChain;
+    private final boolean tiled;
+    private final int tileSize;
+    private final int tileOverlap;
+    private final int maxDimension;
+    private final int parallelism;
+
+    public BarcodeImageDecoder(Context context, DecodeMemoryPool memoryPool, JSONObject options) throws JSONException {
+        this.context = context.getApplicationContext();
+        this.memoryPool = memoryPool;
+
+        JSONObject barcodeFormats = options.optJSONObject("barcodeFormats");
+        if (barcodeFormats != null) {
+            BarcodeScannerActivity.parseBarcodeFormats(barcodeFormats, enabledFormats);
+        } else {
+            BarcodeScannerActivity.setupDefaultFormats(enabledFormats);
+        }
+
+        ruleChain = ScanRuleChain.fromJson(options.optJSONArray("rules"));
+        tiled = options.optBoolean("tiled", false);
+        tileSize = Math.max(MIN_TILE_SIZE, options.optInt("tileSize", DEFAULT_TILE_SIZE));
+        // Overlap is a fraction of the tile; it must be larger than the biggest code expected
+        double overlap = Math.min(0.5, Math.max(0.0, options.optDouble("tileOverlap", DEFAULT_TILE_OVERLAP)));
+        tileOverlap = (int) (tileSize * overlap);
+        maxDimension = Math.max(MIN_TILE_SIZE, options.optInt("maxDimension", DEFAULT_MAX_DIMENSION));
+        parallelism = Math.max(1, options.optInt("tileParallelism", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Largest frame any image can need with these options; admit decodes with this much headroom
+     */
+    public long getMaxFrameBytes() {
+        int side = tiled ? tileSize : maxDimension;
+        return frameBytes(side, side);
+    }
+
+    /**
+     * Decode every barcode in the encoded image (JPEG, PNG, WebP...)
+     * @param admission the pool admission for this decode, taken with getMaxFrameBytes() of headroom;
+     *                  trimmed to the real image and frame size here, released by the caller
+     * @return result object with the merged barcodes and per-tile timings
+     */
+    public JSONObject decode(byte[] imageData, DecodeMemoryPool.Admission admission)
+            throws IOException, JSONException, InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageData, 0, imageData.length, bounds);
+        int width = bounds.outWidth;
+        int height = bounds.outHeight;
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Unable to read image dimensions");
+        }
+
+        // Now that the size is known, give back what the worst-case headroom did not need
+        if (tiled) {
+            memoryPool.trim(admission, imageData.length,
+                            frameBytes(Math.min(tileSize, width), Math.min(tileSize, height)));
+        } else {
+            int sampleSize = sampleSize(width, height);
+            memoryPool.trim(admission, imageData.length,
+                            frameBytes(scaledSize(width, sampleSize), scaledSize(height, sampleSize)));
+        }
+
+        List<TileResult> tileResults;
+        if (tiled) {
+            tileResults = decodeTiled(imageData, width, height, admission);
+        } else {
+            tileResults = new ArrayList<>();
+            tileResults.add(decodeScaled(imageData, width, height, admission));
+        }
+
+        List<DetectedBarcode> barcodes = new ArrayList<>();
+        int duplicates = mergeDuplicates(tileResults, barcodes);
+
+        JSONObject result = new JSONObject();
+        JSONArray barcodesJson = new JSONArray();
+        for (DetectedBarcode barcode : barcodes) {
+            barcodesJson.put(barcode.toJson());
+        }
+        JSONArray tilesJson = new JSONArray();
+        for (TileResult tile : tileResults) {
+            tilesJson.put(tile.toJson());
+        }
+        if (!barcodes.isEmpty()) {
+            result.put("text", barcodes.get(0).text);
+            result.put("format", BarcodeScannerActivity.getFormatString(barcodes.get(0).format));
+        }
+        result.put("success", !barcodes.isEmpty());
+        result.put("barcodes", barcodesJson);
+        result.put("tiles", tilesJson);
+        result.put("tiled", tiled);
+        result.put("imageWidth", width);
+        result.put("imageHeight", height);
+        result.put("duplicatesMerged", duplicates);
+        result.put("rejectedReads", ruleChain.getRejectedCount());
+        result.put("durationMs", SystemClock.elapsedRealtime() - start);
+        result.put("memory", memoryPool.getStats());
+        return result;
+    }
+
+    private int sampleSize(int width, int height) {
+        int sampleSize = 1;
+        while (Math.max(width, height) / sampleSize > maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static int scaledSize(int size, int sampleSize) {
+        return (size + sampleSize - 1) / sampleSize;
+    }
+
+    private TileResult decodeScaled(byte[] imageData, int width, int height, DecodeMemoryPool.Admission admission)
+            throws IOException, InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+
+        int sampleSize = sampleSize(width, height);
+        int scaledWidth = scaledSize(width, sampleSize);
+        int scaledHeight = scaledSize(height, sampleSize);
+        DecodeMemoryPool.FrameMemory memory = memoryPool.acquireFrame(
+            scaledWidth, scaledHeight, luminanceLength(scaledWidth, scaledHeight), admission);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inMutable = true;
+        options.inBitmap = memory.bitmap;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        } catch (IllegalArgumentException e) {
+            // The decoder could not reuse the pooled bitmap; the reservation still covers a fresh one of the same size
+            memory.bitmap.recycle();
+            options.inBitmap = null;
+            try {
+                bitmap = BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+            } catch (RuntimeException | OutOfMemoryError decodeError) {
+                memoryPool.releaseFrame(memory, memory.bitmap);
+                throw decodeError;
+            }
+        } catch (RuntimeException | OutOfMemoryError e) {
+            memoryPool.releaseFrame(memory, memory.bitmap);
+            throw e;
+        }
+        if (bitmap == null) {
+            memoryPool.releaseFrame(memory, memory.bitmap);
+            throw new IOException("Unable to decode image");
+        }
+
+        TileResult tile = new TileResult(0, new Rect(0, 0, width, height), sampleSize);
+        BarcodeDetector detector;
+        try {
+            detector = createDetector();
+        } catch (RuntimeException e) {
+            memoryPool.releaseFrame(memory, bitmap);
+            throw e;
+        }
+        try {
+            detectPooled(detector, memory, bitmap, tile);
+        } finally {
+            detector.release();
+        }
+        tile.durationMs = SystemClock.elapsedRealtime() - start;
+        return tile;
+    }
+
+    /**
+     * NV21 frame size: full resolution Y plane plus interleaved, subsampled chroma
+     */
+    private static int luminanceLength(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * Bitmap plus NV21 luminance buffer for one frame, as reserved in the memory pool
+     */
+    private static long frameBytes(int width, int height) {
+        return (long) width * height * 4 + luminanceLength(width, height);
+    }
+
+    /**
+     * Convert the bitmap to a luminance (NV21) frame, hand the bitmap back, then detect
+     * Both the bitmap and the buffer are released to the pool, also on failure
+     */
+    private void detectPooled(BarcodeDetector detector, DecodeMemoryPool.FrameMemory memory, Bitmap bitmap,
+                              TileResult tile) {
+        try {
+            Frame frame = toLuminanceFrame(bitmap, memory.buffer);
+
+            // The detector only needs the luminance; free the larger ARGB bitmap before detecting
+            memoryPool.releaseBitmap(memory, bitmap);
+            bitmap = null;
+
+            collect(detector.detect(frame), tile);
+        } finally {
+            if (bitmap != null) {
+                memoryPool.releaseBitmap(memory, bitmap);
+            }
+            memoryPool.releaseBuffer(memory);
+        }
+    }
+
+    private static Frame toLuminanceFrame(Bitmap bitmap, byte[] buffer) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x];
+                buffer[offset + x] = (byte) ((((pixel >> 16) & 0xFF) * 77 + ((pixel >> 8) & 0xFF) * 150 + (pixel & 0xFF) * 29) >> 8);
+            }
+        }
+        // Neutral chroma; the detector only looks at the Y plane
+        Arrays.fill(buffer, width * height, buffer.length, (byte) 128);
+        return new Frame.Builder()
+                .setImageData(ByteBuffer.wrap(buffer), width, height, ImageFormat.NV21)
+                .build();
+    }
+
+    private List<TileResult> decodeTiled(byte[] imageData, int width, int height, DecodeMemoryPool.Admission admission)
+            throws IOException {
+        final List<Rect> regions = computeTiles(width, height, tileSize, tileOverlap);
+        final BitmapRegionDecoder regionDecoder = BitmapRegionDecoder.newInstance(imageData, 0, imageData.length, false);
+        if (regionDecoder == null) {
+            throw new IOException("Image format does not support region decoding");
+        }
+
+        Log.d(TAG, "Decoding " + width + "x" + height + " image in " + regions.size() + " tiles");
+
+        // Vision detectors are not shared across threads; each worker lazily creates its own
+        final Queue<BarcodeDetector> detectors = new ConcurrentLinkedQueue<>();
+        final ThreadLocal<BarcodeDetector> threadDetector = new ThreadLocal<BarcodeDetector>() {
+            @Override
+            protected BarcodeDetector initialValue() {
+                BarcodeDetector detector = createDetector();
+                detectors.add(detector);
+                return detector;
+            }
+        };
+
+        // Only run as many tiles at once as the memory budget holds next to the encoded image,
+        // so workers take turns instead of all queueing on the budget
+        long tileCost = frameBytes(Math.min(tileSize, width), Math.min(tileSize, height));
+        long budgetTiles = Math.max(1, (memoryPool.getMaxBytes() - imageData.length) / tileCost);
+        int workers = (int) Math.min(Math.min(parallelism, regions.size()), budgetTiles);
+
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            return pool.invoke(new TileTask(regionDecoder, regions, threadDetector, admission, 0, regions.size()));
+        } finally {
+            pool.shutdown();
+            for (BarcodeDetector detector : detectors) {
+                detector.release();
+            }
+            regionDecoder.recycle();
+        }
+    }
+
+    /**
+     * Split the image into tiles of at most tileSize pixels overlapping by overlap pixels
+     * Edge tiles are shifted inwards so every tile keeps the full size where possible
+     */
+    static List<Rect> computeTiles(int width, int height, int tileSize, int overlap) {
+        List<Rect> tiles = new ArrayList<>();
+        int step = Math.max(1, tileSize - overlap);
+        for (int top = 0; ; top += step) {
+            int bottom = Math.min(top + tileSize, height);
+            int tileTop = Math.max(0, bottom - tileSize);
+            for (int left = 0; ; left += step) {
+                int right = Math.min(left + tileSize, width);
+                tiles.add(new Rect(Math.max(0, right - tileSize), tileTop, right, bottom));
+                if (right >= width) {
+                    break;
+                }
+            }
+            if (bottom >= height) {
+                break;
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Merge detections of the same code found in the overlap zone of neighbouring tiles
+     * Identical values whose bounds do not touch are kept, they are separate labels
+     * @return number of duplicates dropped
+     */
+    static int mergeDuplicates(List<TileResult> tiles, List<DetectedBarcode> merged) {
+        int duplicates = 0;
+        for (TileResult tile : tiles) {
+            for (DetectedBarcode candidate : tile.barcodes) {
+                DetectedBarcode existing = null;
+                for (DetectedBarcode barcode : merged) {
+                    if (barcode.format == candidate.format
+                            && barcode.rawValue.equals(candidate.rawValue)
+                            && Rect.intersects(barcode.bounds, candidate.bounds)) {
+                        existing = barcode;
+                        break;
+                    }
+                }
+                if (existing != null) {
+                    existing.bounds.union(candidate.bounds);
+                    duplicates++;
+                } else {
+                    merged.add(candidate);
+                }
+            }
+        }
+        return duplicates;
+    }
+
+    private BarcodeDetector createDetector() {
+        BarcodeDetector detector = new BarcodeDetector.Builder(context)
+                .setBarcodeFormats(BarcodeScannerActivity.SUPPORTED_FORMATS)
+                .build();
+        if (!detector.isOperational()) {
+            detector.release();
+            throw new IllegalStateException("Barcode detector not available");
+        }
+        return detector;
+    }
+
+    private void collect(SparseArray<Barcode> detections, TileResult tile) {
+        for (int i = 0; i < detections.size(); i++) {
+            Barcode barcode = detections.valueAt(i);
+            if (!enabledFormats.contains(barcode.format)
+                    || !ruleChain.accept(barcode.displayValue, BarcodeScannerActivity.getFormatString(barcode.format))) {
+                continue;
+            }
+
+            // Map tile coordinates back onto the source image
+            Rect box = barcode.getBoundingBox();
+            Rect bounds = new Rect(
+                tile.region.left + box.left * tile.sampleSize,
+                tile.region.top + box.top * tile.sampleSize,
+                tile.region.left + box.right * tile.sampleSize,
+                tile.region.top + box.bottom * tile.sampleSize);
+            tile.barcodes.add(new DetectedBarcode(barcode.displayValue, barcode.rawValue, barcode.format, bounds, tile.index));
+        }
+    }
+
+    /**
+     * Recursively splits the tile range; leaves decode one region each
+     */
+    private class TileTask extends RecursiveTask<List<TileResult>> {
+
+        private final BitmapRegionDecoder regionDecoder;
+        private final List<Rect> regions;
+        private final ThreadLocal<BarcodeDetector> threadDetector;
+        private final DecodeMemoryPool.Admission admission;
+        private final int from;
+        private final int to;
+
+        TileTask(BitmapRegionDecoder regionDecoder, List<Rect> regions,
+                 ThreadLocal<BarcodeDetector> threadDetector, DecodeMemoryPool.Admission admission, int from, int to) {
+            this.regionDecoder = regionDecoder;
+            this.regions = regions;
+            this.threadDetector = threadDetector;
+            this.admission = admission;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<TileResult> compute() {
+            if (to - from == 1) {
+                List<TileResult> results = new ArrayList<>();
+                results.add(decodeTile(from));
+                return results;
+            }
+
+            int middle = (from + to) >>> 1;
+            TileTask left = new TileTask(regionDecoder, regions, threadDetector, admission, from, middle);
+            TileTask right = new TileTask(regionDecoder, regions, threadDetector, admission, middle, to);
+            left.fork();
+            List<TileResult> rightResults = right.compute();
+            List<TileResult> results = left.join();
+            results.addAll(rightResults);
+            return results;
+        }
+
+        private TileResult decodeTile(int index) {
+            long start = SystemClock.elapsedRealtime();
+            TileResult tile = new TileResult(index, regions.get(index), 1);
+
+            try {
+                BarcodeDetector detector = threadDetector.get();
+                // Bitmap and luminance are reserved together; blocks here, holding nothing, when neither
+                // the decode's headroom nor the budget has room
+                int width = tile.region.width();
+                int height = tile.region.height();
+                DecodeMemoryPool.FrameMemory memory = memoryPool.acquireFrame(
+                    width, height, luminanceLength(width, height), admission);
+                Bitmap bitmap;
+                try {
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inBitmap = memory.bitmap;
+                    bitmap = regionDecoder.decodeRegion(tile.region, options);
+                } catch (RuntimeException | OutOfMemoryError e) {
+                    memoryPool.releaseFrame(memory, memory.bitmap);
+                    throw e;
+                }
+                if (bitmap == null) {
+                    memoryPool.releaseFrame(memory, memory.bitmap);
+                    Log.w(TAG, "Unable to decode tile " + index);
+                } else {
+                    detectPooled(detector, memory, bitmap, tile);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Tile decode interrupted", e);
+            }
+            tile.durationMs = SystemClock.elapsedRealtime() - start;
+            return tile;
+        }
+    }
+
+    static class TileResult {
+        final int index;
+        final Rect region;
+        final int sampleSize;
+        final List<DetectedBarcode> barcodes = new ArrayList<>();
+        long durationMs;
+
+        TileResult(int index, Rect region, int sampleSize) {
+            this.index = index;
+            this.region = region;
+            this.sampleSize = sampleSize;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("index", index);
+            json.put("left", region.left);
+            json.put("top", region.top);
+            json.put("right", region.right);
+            json.put("bottom", region.bottom);
+            json.put("sampleSize", sampleSize);
+            json.put("durationMs", durationMs);
+            json.put("found", barcodes.size());
+            return json;
+        }
+    }
+
+    static class DetectedBarcode {
+        final String text;
+        final String rawValue;
+        final int format;
+        final Rect bounds;
+        final int tileIndex;
+
+        DetectedBarcode(String text, String rawValue, int format, Rect bounds, int tileIndex) {
+            this.text = text;
+            this.rawValue = rawValue != null ? rawValue : text;
+            this.format = format;
+            this.bounds = bounds;
+            this.tileIndex = tileIndex;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject box = new JSONObject();
+            box.put("left", bounds.left);
+            box.put("top", bounds.top);
+            box.put("right", bounds.right);
+            box.put("bottom", bounds.bottom);
+
+            JSONObject json = new JSONObject();
+            json.put("text", text);
+            json.put("format", BarcodeScannerActivity.getFormatString(format));
+            json.put("bounds", box);
+            json.put("tile", tileIndex);
+            return json;
+        }
+    }
+}
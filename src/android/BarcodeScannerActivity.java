@@ -4,6 +4,8 @@ import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.SparseArray;
 import android.view.SurfaceHolder;
@@ -21,7 +23,6 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
-import com.google.android.gms.vision.CameraSource;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.barcode.Barcode;
 import com.google.android.gms.vision.barcode.BarcodeDetector;
@@ -30,7 +31,12 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -40,17 +46,49 @@ import java.util.Set;
 public class BarcodeScannerActivity extends AppCompatActivity {
     
     private static final String TAG = "BarcodeScannerActivity";
+    
+    /**
+     * Receives the activity lifecycle and, in continuous mode, every detection
+     */
+    interface ScanListener {
+        void onScannerStarted(BarcodeScannerActivity activity);
+        void onScanResult(ScanResult result);
+        void onScannerStopped(BarcodeScannerActivity activity);
+        void onPowerEvent(JSONObject event);
+    }
+    
+    private static volatile ScanListener scanListener;
+    
+    static void setScanListener(ScanListener listener) {
+        scanListener = listener;
+    }
     private static final int REQUEST_CODE_PERMISSIONS = 10;
     private static final String[] REQUIRED_PERMISSIONS = new String[]{Manifest.permission.CAMERA};
     
+    // Formats the Vision detector is asked to look for; results are filtered by enabledFormats
+    static final int SUPPORTED_FORMATS = Barcode.DATA_MATRIX | Barcode.QR_CODE | Barcode.CODE_128 | 
+                                         Barcode.CODE_39 | Barcode.EAN_13 | Barcode.EAN_8 | 
+                                         Barcode.UPC_A | Barcode.UPC_E | Barcode.PDF417 | 
+                                         Barcode.AZTEC | Barcode.CODABAR | Barcode.ITF;
+    
     private SurfaceView previewView;
     private FrameLayout overlayView;
     private Button torchButton;
     private Button closeButton;
-    private CameraSource cameraSource;
+    private ScanCamera camera;
     private BarcodeDetector barcodeDetector;
+    private boolean cameraRunning = false;
+    private android.media.ToneGenerator toneGenerator;
+    private ScanSession session;
+    private long timeoutMs = 0;
+    private long idleTimeoutMs = 0;
     
     private boolean isScanning = true;
+    private boolean continuous = false;
+    private boolean returnRawBytes = false;
+    private long duplicateWindowMs = 1000;
+    // Continuous mode: when each value was last seen, pruned to duplicateWindowMs; detector thread only
+    private final Map<String, Long> lastSeenTimes = new HashMap<>();
     private boolean torchEnabled = false;
     
     private String targetFormat = "DATA_MATRIX";
@@ -59,6 +97,33 @@ public class BarcodeScannerActivity extends AppCompatActivity {
     private boolean vibrateOnSuccess = false;
     private float detectorSize = 0.6f;
     private boolean rotateCamera = false;
+    private ScanRuleChain ruleChain;
+    private ScanConsensus consensus;
+    
+    // Preview sizes selectable through the resolution option, from 480P to 4K
+    private static final int[][] PREVIEW_SIZES = {{640, 480}, {1280, 720}, {1920, 1080}, {2560, 1440}, {3840, 2160}};
+    private int previewSizeIndex = 1;
+    // Preview size wanted by the options; previewSizeIndex may be capped below it by the power level
+    private int basePreviewSizeIndex = 1;
+    private float requestedFps = ScanPowerScheduler.Level.NORMAL.fps;
+    
+    private boolean powerAware = false;
+    private JSONObject powerPolicy;
+    private ScanPowerScheduler powerScheduler;
+    // Read by the detector thread
+    private volatile ScanPowerScheduler.Level powerLevel = ScanPowerScheduler.Level.NORMAL;
+    
+    private String requestedLens = CameraLensSelector.LENS_MAIN;
+    private List<CameraLensSelector.LensInfo> lenses;
+    // Lens fields are written on the main thread and read with each result on the detector thread
+    private volatile CameraLensSelector.LensInfo currentLens;
+    // Auto mode: how long the lens may fail to focus before switching
+    private long lensSwitchTimeoutMs = 3000;
+    private volatile long cameraOpenMs = 0;
+    private volatile long lensSwitchMs = 0;
+    private long lensSwitchStart = -1;
+    private int lensSwitches = 0;
+    private volatile long lastDecodeTime = 0;
     
     // Barcode format mapping
     private Set<Integer> enabledFormats = new HashSet<>();
@@ -79,7 +144,7 @@ public class BarcodeScannerActivity extends AppCompatActivity {
                 
                 if (options.has("barcodeFormats")) {
                     JSONObject barcodeFormats = options.getJSONObject("barcodeFormats");
-                    parseBarcodeFormats(barcodeFormats);
+                    parseBarcodeFormats(barcodeFormats, enabledFormats);
                 } else {
                     // Fallback to old format
                     targetFormat = options.optString("format", "DATA_MATRIX");
@@ -91,6 +156,20 @@ public class BarcodeScannerActivity extends AppCompatActivity {
                 vibrateOnSuccess = options.optBoolean("vibrateOnSuccess", false);
                 detectorSize = (float) options.optDouble("detectorSize", 0.6);
                 rotateCamera = options.optBoolean("rotateCamera", false);
+                continuous = options.optBoolean("continuous", false);
+                returnRawBytes = options.optBoolean("returnRawBytes", false);
+                duplicateWindowMs = options.optLong("duplicateWindowMs", 1000);
+                // Rules were validated by the plugin before the activity was started
+                ruleChain = ScanRuleChain.fromJson(options.optJSONArray("rules"));
+                consensus = ScanConsensus.fromJson(options.optJSONObject("consensus"));
+                basePreviewSizeIndex = getPreviewSizeIndex(options.optString("resolution", "AUTO"));
+                previewSizeIndex = basePreviewSizeIndex;
+                powerAware = options.optBoolean("powerAware", false);
+                powerPolicy = options.optJSONObject("powerPolicy");
+                requestedLens = options.optString("lens", CameraLensSelector.LENS_MAIN);
+                lensSwitchTimeoutMs = options.optLong("lensSwitchTimeout", 3000);
+                timeoutMs = options.optLong("timeout", 0);
+                idleTimeoutMs = options.optLong("idleTimeout", 0);
             } catch (JSONException e) {
                 Log.e(TAG, "Error parsing options", e);
                 setupDefaultFormats();
@@ -98,10 +177,37 @@ public class BarcodeScannerActivity extends AppCompatActivity {
         } else {
             setupDefaultFormats();
         }
+        if (ruleChain == null) {
+            ruleChain = ScanRuleChain.empty();
+        }
+        if (consensus == null) {
+            consensus = ScanConsensus.fromJson(null);
+        }
+        session = new ScanSession(timeoutMs, idleTimeoutMs, new ScanSession.Listener() {
+            @Override
+            public void onSuspend() {
+                suspendCamera();
+            }
+            
+            @Override
+            public void onResume() {
+                resumeCamera();
+            }
+            
+            @Override
+            public void onEnd(String reason) {
+                endSession(reason);
+            }
+        });
         
         // Set up UI
         setupUI();
         
+        ScanListener listener = scanListener;
+        if (listener != null) {
+            listener.onScannerStarted(this);
+        }
+        
         // Request permissions
         if (allPermissionsGranted()) {
             startScanning();
@@ -224,6 +330,10 @@ public class BarcodeScannerActivity extends AppCompatActivity {
     }
     
     private void setupDefaultFormats() {
+        setupDefaultFormats(enabledFormats);
+    }
+    
+    static void setupDefaultFormats(Set<Integer> enabledFormats) {
         // Enable common formats by default
         enabledFormats.add(Barcode.DATA_MATRIX);
         enabledFormats.add(Barcode.QR_CODE);
@@ -237,7 +347,7 @@ public class BarcodeScannerActivity extends AppCompatActivity {
         enabledFormats.add(Barcode.AZTEC);
     }
     
-    private void parseBarcodeFormats(JSONObject barcodeFormats) {
+    static void parseBarcodeFormats(JSONObject barcodeFormats, Set<Integer> enabledFormats) {
         try {
             // Map JavaScript format names to Google Play Services Vision constants
             if (barcodeFormats.optBoolean("DataMatrix", true)) {
@@ -282,7 +392,7 @@ public class BarcodeScannerActivity extends AppCompatActivity {
             
         } catch (Exception e) {
             Log.e(TAG, "Error parsing barcode formats", e);
-            setupDefaultFormats();
+            setupDefaultFormats(enabledFormats);
         }
     }
     
@@ -291,7 +401,15 @@ public class BarcodeScannerActivity extends AppCompatActivity {
         closeButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                finish();
+                session.cancel();
+            }
+        });
+        
+        // Tap the preview to wake a suspended session
+        previewView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                session.resume();
             }
         });
         
@@ -334,11 +452,9 @@ public class BarcodeScannerActivity extends AppCompatActivity {
     private void startScanning() {
         // Create barcode detector
         barcodeDetector = new BarcodeDetector.Builder(this)
-                .setBarcodeFormats(Barcode.DATA_MATRIX | Barcode.QR_CODE | Barcode.CODE_128 | 
-                                 Barcode.CODE_39 | Barcode.EAN_13 | Barcode.EAN_8 | 
-                                 Barcode.UPC_A | Barcode.UPC_E | Barcode.PDF417 | 
-                                 Barcode.AZTEC | Barcode.CODABAR | Barcode.ITF)
+                .setBarcodeFormats(SUPPORTED_FORMATS)
                 .build();
+        ScanSession.acquired(ScanSession.Resource.DETECTOR);
         
         if (!barcodeDetector.isOperational()) {
             Log.e(TAG, "Barcode detector is not operational");
@@ -347,45 +463,43 @@ public class BarcodeScannerActivity extends AppCompatActivity {
             return;
         }
         
-        // Create camera source
-        cameraSource = new CameraSource.Builder(this, barcodeDetector)
-                .setAutoFocusEnabled(true)
-                .setRequestedPreviewSize(1280, 720)
-                .build();
+        // Pick the camera for the lens option
+        lenses = CameraLensSelector.enumerate(this);
+        currentLens = CameraLensSelector.resolve(requestedLens, lenses);
+        if (currentLens == null) {
+            Log.e(TAG, "No camera available");
+            Toast.makeText(this, "No camera available", Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+        camera = buildCamera();
         
-        // Set up detector
-        barcodeDetector.setProcessor(new Detector.Processor<Barcode>() {
-            @Override
-            public void release() {
-                // Clean up resources
-            }
-            
-            @Override
-            public void receiveDetections(Detector.Detections<Barcode> detections) {
-                if (!isScanning) return;
-                
-                SparseArray<Barcode> barcodes = detections.getDetectedItems();
-                if (barcodes.size() > 0) {
-                    Barcode barcode = barcodes.valueAt(0);
-                    
-                    // Check if this format is enabled
-                    if (enabledFormats.contains(barcode.format)) {
-                        handleBarcodeDetected(barcode.displayValue, barcode.format);
+        if (powerAware) {
+            powerScheduler = new ScanPowerScheduler(powerPolicy, new ScanPowerScheduler.SystemSignalSource(this),
+                new ScanPowerScheduler.Listener() {
+                    @Override
+                    public void onPowerLevelChanged(final ScanPowerScheduler.Level from, final ScanPowerScheduler.Level to,
+                                                    final String reason) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                applyPowerLevel(from, to, reason);
+                            }
+                        });
                     }
-                }
-            }
-        });
+                });
+            powerScheduler.start();
+        }
+        
+        // The timeout runs from here, not while the permission prompt is showing
+        session.start();
         
         // Set up SurfaceView callback
         previewView.getHolder().addCallback(new SurfaceHolder.Callback() {
             @Override
             public void surfaceCreated(SurfaceHolder holder) {
-                try {
-                    cameraSource.start(previewView.getHolder());
-                } catch (IOException e) {
-                    Log.e(TAG, "Error starting camera", e);
-                    Toast.makeText(BarcodeScannerActivity.this, "Error starting camera", Toast.LENGTH_SHORT).show();
-                    finish();
+                if (session.isActive()) {
+                    startCamera();
                 }
             }
             
@@ -396,15 +510,280 @@ public class BarcodeScannerActivity extends AppCompatActivity {
             
             @Override
             public void surfaceDestroyed(SurfaceHolder holder) {
-                cameraSource.stop();
+                stopCamera();
             }
         });
     }
     
-    private void handleBarcodeDetected(String barcodeText, int barcodeFormat) {
+    /**
+     * Receives the detections of whichever camera is running; every camera feeds the same
+     * detector through its own ScanCamera.SharedDetector
+     */
+    private final Detector.Processor<Barcode> barcodeProcessor = new Detector.Processor<Barcode>() {
+        @Override
+        public void release() {
+            // Clean up resources
+        }
+        
+        @Override
+        public void receiveDetections(Detector.Detections<Barcode> detections) {
+            if (!isScanning) return;
+            
+            SparseArray<Barcode> barcodes = detections.getDetectedItems();
+            List<String> keys = new ArrayList<>();
+            List<Barcode> accepted = new ArrayList<>();
+            for (int i = 0; i < barcodes.size(); i++) {
+                Barcode barcode = barcodes.valueAt(i);
+                
+                // Check if this format is enabled and the value passes the rule chain;
+                // rejected reads are dropped here so the camera keeps trying on the next frame
+                if (enabledFormats.contains(barcode.format)
+                        && ruleChain.accept(barcode.displayValue, getFormatString(barcode.format))) {
+                    keys.add(barcode.format + ":" + barcode.displayValue);
+                    accepted.add(barcode);
+                }
+            }
+            
+            // Every frame votes, including empty ones, so stale values age out of the window;
+            // at the MINIMAL power level values are accepted on their first frame
+            boolean voting = powerLevel.consensusVoting;
+            List<String> winners = voting ? consensus.submit(keys, SystemClock.elapsedRealtime()) : keys;
+            // Continuous mode reports every code accepted in this frame, single mode the first one
+            for (String winner : winners) {
+                int votes = voting && consensus.isEnabled() ? consensus.getVotes(winner) : 0;
+                handleBarcodeDetected(accepted.get(keys.indexOf(winner)), votes,
+                                      votes > 0 ? consensus.getLatencyMs(winner) : 0);
+            }
+        }
+    };
+    
+    /**
+     * CameraSource for the primary back / front camera; Camera2 for every other lens and for
+     * the auto mode, which needs the autofocus state
+     */
+    private ScanCamera buildCamera() {
+        int[] size = PREVIEW_SIZES[previewSizeIndex];
+        boolean auto = CameraLensSelector.LENS_AUTO.equals(requestedLens);
+        ScanSession.acquired(ScanSession.Resource.CAMERA_SOURCE);
+        if (currentLens.primary && !auto) {
+            return new VisionScanCamera(this, currentLens, size[0], size[1], requestedFps,
+                                        barcodeDetector, barcodeProcessor, cameraListener);
+        }
+        return new Camera2ScanCamera(this, currentLens, size[0], size[1], requestedFps, getDisplayRotation(),
+                                     auto ? lensSwitchTimeoutMs : 0, barcodeDetector, barcodeProcessor, cameraListener);
+    }
+    
+    /**
+     * Surface.ROTATION_* of this activity's display
+     */
+    @SuppressWarnings("deprecation")
+    private int getDisplayRotation() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            return getDisplay().getRotation();
+        }
+        return getWindowManager().getDefaultDisplay().getRotation();
+    }
+    
+    private final ScanCamera.Listener cameraListener = new ScanCamera.Listener() {
+        @Override
+        public void onCameraOpened(ScanCamera opened, long openMs) {
+            if (opened != camera) {
+                return;
+            }
+            cameraOpenMs = openMs;
+            if (lensSwitchStart >= 0) {
+                lensSwitchMs = SystemClock.elapsedRealtime() - lensSwitchStart;
+                lensSwitchStart = -1;
+            }
+            Log.d(TAG, "Camera " + opened.getLens().type + " (" + opened.getLens().id + ") opened in " + openMs + "ms");
+        }
+        
+        @Override
+        public void onFocusFailed(ScanCamera failed) {
+            if (failed == camera) {
+                switchLens();
+            }
+        }
+        
+        @Override
+        public void onCameraError(ScanCamera failed, Exception error) {
+            if (failed != camera || isFinishing()) {
+                return;
+            }
+            Log.e(TAG, "Camera error", error);
+            Toast.makeText(BarcodeScannerActivity.this, "Error starting camera", Toast.LENGTH_SHORT).show();
+            finish();
+        }
+    };
+    
+    private void startCamera() {
+        if (cameraRunning) {
+            return;
+        }
+        try {
+            camera.start(previewView.getHolder());
+            cameraRunning = true;
+            ScanSession.acquired(ScanSession.Resource.CAMERA);
+        } catch (IOException e) {
+            Log.e(TAG, "Error starting camera", e);
+            Toast.makeText(BarcodeScannerActivity.this, "Error starting camera", Toast.LENGTH_SHORT).show();
+            finish();
+        }
+    }
+    
+    /**
+     * Close the camera device; the camera and the detector stay usable for startCamera()
+     */
+    private void stopCamera() {
+        if (cameraRunning) {
+            camera.stop();
+            cameraRunning = false;
+            ScanSession.released(ScanSession.Resource.CAMERA);
+        }
+    }
+    
+    /**
+     * Replace the camera with one for the current lens, preview size and frame rate
+     * The old camera is released; it only owned a wrapper around the shared detector
+     * @return time taken to switch in ms, not counting an asynchronous Camera2 open
+     */
+    private long restartCamera() {
+        long start = SystemClock.elapsedRealtime();
+        stopCamera();
+        releaseCamera();
+        camera = buildCamera();
+        if (session.isActive() && previewView.getHolder().getSurface().isValid()) {
+            startCamera();
+        }
+        // Otherwise surfaceCreated() or resumeCamera() starts the new camera
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.d(TAG, "Camera switched in " + elapsed + "ms");
+        return elapsed;
+    }
+    
+    /**
+     * Free the current camera; releases its detector wrapper, not the shared detector
+     */
+    private void releaseCamera() {
+        camera.release();
+        ScanSession.released(ScanSession.Resource.CAMERA_SOURCE);
+    }
+    
+    /**
+     * Auto lens mode: the lens could not focus, e.g. the code is closer than its minimum focus distance
+     * Switch between the main lens and the back lens that focuses closest
+     */
+    private void switchLens() {
+        if (!isScanning || !session.isActive() || !powerLevel.autoSwitch
+                || SystemClock.elapsedRealtime() - lastDecodeTime < lensSwitchTimeoutMs) {
+            return;
+        }
+        CameraLensSelector.LensInfo next = CameraLensSelector.nextAutoLens(currentLens, lenses);
+        if (next == null || next == currentLens) {
+            return;
+        }
+        Log.d(TAG, "Lens " + currentLens.type + " can't focus, switching to " + next.type);
+        currentLens = next;
+        lensSwitches++;
+        lensSwitchStart = SystemClock.elapsedRealtime();
+        restartCamera();
+    }
+    
+    /**
+     * Idle session: close the camera but keep the detector warm for a quick resume
+     */
+    private void suspendCamera() {
+        stopCamera();
+        Toast.makeText(this, "Scanner paused, tap to resume", Toast.LENGTH_SHORT).show();
+    }
+    
+    private void resumeCamera() {
+        consensus.reset();
+        if (!isFinishing() && previewView.getHolder().getSurface().isValid()) {
+            startCamera();
+        }
+    }
+    
+    /**
+     * Timed out or cancelled: report why, then finish; onDestroy releases everything
+     */
+    private void endSession(String reason) {
+        if (ScanSession.END_RESULT.equals(reason) || isFinishing()) {
+            return;
+        }
+        Intent resultIntent = new Intent();
+        resultIntent.putExtra("cancelReason", reason);
+        setResult(RESULT_CANCELED, resultIntent);
+        finish();
+    }
+    
+    /**
+     * Cap preview size and frame rate for the new power level and report the transition
+     * The camera is only restarted when the capped size or frame rate actually changes
+     */
+    private void applyPowerLevel(ScanPowerScheduler.Level from, ScanPowerScheduler.Level to, String reason) {
+        if (isFinishing() || camera == null) {
+            return;
+        }
+        if (to.consensusVoting && !from.consensusVoting) {
+            // Votes collected before voting was paused are stale
+            consensus.reset();
+        }
+        powerLevel = to;
+        int sizeIndex = Math.min(basePreviewSizeIndex, to.maxPreviewSizeIndex);
+        boolean restart = sizeIndex != previewSizeIndex || to.fps != requestedFps;
+        long switchMs = 0;
+        if (restart) {
+            previewSizeIndex = sizeIndex;
+            requestedFps = to.fps;
+            switchMs = restartCamera();
+        }
+        
+        ScanListener listener = scanListener;
+        if (listener != null) {
+            try {
+                JSONObject event = new JSONObject();
+                event.put("type", "powerLevel");
+                event.put("from", from.name());
+                event.put("to", to.name());
+                event.put("reason", reason);
+                event.put("thermalStatus", powerScheduler.getThermalStatus());
+                event.put("batteryLevel", powerScheduler.getBatteryLevel());
+                event.put("charging", powerScheduler.isCharging());
+                event.put("previewSize", getResolution());
+                event.put("fps", requestedFps);
+                event.put("cameraRestarted", restart);
+                event.put("switchMs", switchMs);
+                event.put("timestamp", System.currentTimeMillis());
+                listener.onPowerEvent(event);
+            } catch (JSONException e) {
+                Log.e(TAG, "Error creating power event", e);
+            }
+        }
+    }
+    
+    /**
+     * @param consensusVotes votes the value reached consensus with, 0 if it was not voted on
+     */
+    private void handleBarcodeDetected(Barcode barcode, final int consensusVotes, final long consensusLatencyMs) {
         if (!isScanning) return;
         
-        isScanning = false;
+        final String barcodeText = barcode.displayValue;
+        final byte[] rawBytes = returnRawBytes ? barcode.rawBytes : null;
+        // Convert format to string
+        final String formatString = getFormatString(barcode.format);
+        // A lens that decodes is good enough, even if its autofocus disagrees
+        lastDecodeTime = SystemClock.elapsedRealtime();
+        
+        if (continuous) {
+            // Codes still in view: don't report them on every frame
+            if (isDuplicate(barcodeText, SystemClock.elapsedRealtime())) {
+                return;
+            }
+            session.onResult();
+        } else {
+            isScanning = false;
+        }
         
         // Play beep and vibrate if enabled
         if (beepOnSuccess) {
@@ -414,23 +793,90 @@ public class BarcodeScannerActivity extends AppCompatActivity {
             vibrate();
         }
         
-        // Convert format to string
-        String formatString = getFormatString(barcodeFormat);
+        if (continuous) {
+            ScanListener listener = scanListener;
+            if (listener != null) {
+                listener.onScanResult(new ScanResult(barcodeText, formatString, barcode.getBoundingBox(),
+                                                     System.currentTimeMillis(), rawBytes,
+                                                     getResultDetails(consensusVotes, consensusLatencyMs)));
+            }
+            return;
+        }
         
         // Return result
         runOnUiThread(new Runnable() {
             @Override
             public void run() {
+                if (isFinishing()) {
+                    // Timed out or cancelled while this result was queued
+                    return;
+                }
                 Intent resultIntent = new Intent();
                 resultIntent.putExtra("text", barcodeText);
+                if (rawBytes != null) {
+                    // Payloads can exceed the Binder limit, only a token goes through the Intent
+                    resultIntent.putExtra("rawBytesToken", ScanPayloadStore.put(rawBytes));
+                }
                 resultIntent.putExtra("format", formatString);
+                resultIntent.putExtra("rejectedReads", ruleChain.getRejectedCount());
+                resultIntent.putExtra("lens", currentLens.type);
+                resultIntent.putExtra("lensId", currentLens.id);
+                resultIntent.putExtra("requestedLens", requestedLens);
+                resultIntent.putExtra("previewSize", getResolution());
+                resultIntent.putExtra("cameraOpenMs", cameraOpenMs);
+                resultIntent.putExtra("lensSwitchMs", lensSwitchMs);
+                resultIntent.putExtra("lensSwitches", lensSwitches);
+                if (consensusVotes > 0) {
+                    resultIntent.putExtra("consensusVotes", consensusVotes);
+                    resultIntent.putExtra("consensusLatencyMs", consensusLatencyMs);
+                }
                 setResult(RESULT_OK, resultIntent);
+                session.end(ScanSession.END_RESULT);
                 finish();
             }
         });
     }
     
-    private String getFormatString(int format) {
+    /**
+     * The scan context a single scan returns through its Intent extras, for continuous results
+     */
+    private ScanResult.Details getResultDetails(int consensusVotes, long consensusLatencyMs) {
+        CameraLensSelector.LensInfo lens = currentLens;
+        return new ScanResult.Details(ScanResult.SOURCE_CAMERA, ruleChain.getRejectedCount(),
+                                      lens.type, lens.id, cameraOpenMs, lensSwitchMs,
+                                      consensusVotes, consensusLatencyMs);
+    }
+    
+    /**
+     * Continuous mode duplicate check; a value stays suppressed while it keeps being seen
+     * within duplicateWindowMs, and values out of view for longer are forgotten
+     */
+    private boolean isDuplicate(String value, long now) {
+        Iterator<Map.Entry<String, Long>> entries = lastSeenTimes.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (now - entries.next().getValue() >= duplicateWindowMs) {
+                entries.remove();
+            }
+        }
+        return lastSeenTimes.put(value, now) != null;
+    }
+    
+    private static int getPreviewSizeIndex(String resolution) {
+        switch (resolution) {
+            case "480P":
+                return 0;
+            case "1080P":
+                return 2;
+            case "2K":
+                return 3;
+            case "4K":
+                return 4;
+            default:
+                return 1;
+        }
+    }
+    
+    static String getFormatString(int format) {
         switch (format) {
             case Barcode.DATA_MATRIX:
                 return "DATA_MATRIX";
@@ -462,10 +908,13 @@ public class BarcodeScannerActivity extends AppCompatActivity {
     }
     
     private void playBeep() {
-        // Simple beep implementation
+        // One tone generator per activity, released in onDestroy
         try {
-            android.media.ToneGenerator toneGen = new android.media.ToneGenerator(android.media.AudioManager.STREAM_MUSIC, 100);
-            toneGen.startTone(android.media.ToneGenerator.TONE_PROP_BEEP);
+            if (toneGenerator == null) {
+                toneGenerator = new android.media.ToneGenerator(android.media.AudioManager.STREAM_MUSIC, 100);
+                ScanSession.acquired(ScanSession.Resource.TONE_GENERATOR);
+            }
+            toneGenerator.startTone(android.media.ToneGenerator.TONE_PROP_BEEP);
         } catch (Exception e) {
             Log.e(TAG, "Error playing beep", e);
         }
@@ -506,15 +955,37 @@ public class BarcodeScannerActivity extends AppCompatActivity {
     }
     
     public String getResolution() {
-        return "1280x720";
+        String previewSize = camera != null ? camera.getPreviewSize() : null;
+        if (previewSize != null) {
+            return previewSize;
+        }
+        int[] size = PREVIEW_SIZES[previewSizeIndex];
+        return size[0] + "x" + size[1];
     }
     
     public void pauseScanning() {
         isScanning = false;
+        // A paused scan is waiting on the app, not on the user
+        session.pauseTimeout();
     }
     
     public void resumeScanning() {
+        if (consensus != null) {
+            consensus.reset();
+        }
         isScanning = true;
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                session.resumeTimeout();
+                // Also wakes a session suspended for being idle
+                session.resume();
+            }
+        });
+    }
+    
+    public String getSessionState() {
+        return session != null ? session.getState().name() : ScanSession.State.NEW.name();
     }
     
     private boolean allPermissionsGranted() {
@@ -542,12 +1013,31 @@ public class BarcodeScannerActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (cameraSource != null) {
-            cameraSource.stop();
-            cameraSource.release();
+        ScanListener listener = scanListener;
+        if (listener != null) {
+            listener.onScannerStopped(this);
+        }
+        if (session != null) {
+            session.end(ScanSession.END_CANCELLED);
+        }
+        if (powerScheduler != null) {
+            powerScheduler.stop();
+            powerScheduler = null;
+        }
+        if (camera != null) {
+            stopCamera();
+            releaseCamera();
+            camera = null;
         }
         if (barcodeDetector != null) {
             barcodeDetector.release();
+            barcodeDetector = null;
+            ScanSession.released(ScanSession.Resource.DETECTOR);
+        }
+        if (toneGenerator != null) {
+            toneGenerator.release();
+            toneGenerator = null;
+            ScanSession.released(ScanSession.Resource.TONE_GENERATOR);
         }
     }
 } 
\ No newline at end of file
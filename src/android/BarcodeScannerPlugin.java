@@ -1,9 +1,11 @@
 package com.mccbarcode;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.util.Base64;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
@@ -23,7 +25,7 @@ import java.util.List;
  * Custom Barcode Scanner Plugin for Cordova
  * Supports Data Matrix and other barcode formats
  */
-public class BarcodeScannerPlugin extends CordovaPlugin {
+public class BarcodeScannerPlugin extends CordovaPlugin implements BarcodeScannerActivity.ScanListener {
     
     private static final String TAG = "BarcodeScannerPlugin";
     private static final int CAMERA_PERMISSION_REQUEST = 1001;
@@ -31,7 +33,15 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
     
     private CallbackContext currentCallbackContext;
     private boolean isInitialized = false;
-    private BarcodeScannerActivity scannerActivity;
+    // Set and cleared on the main thread by the activity, read from plugin threads
+    private volatile BarcodeScannerActivity scannerActivity;
+    // Read on the detector thread and, to route hardware scans, on the main thread
+    private volatile CallbackContext continuousCallbackContext;
+    private ScanResultBatcher resultBatcher;
+    private CallbackContext powerEventCallbackContext;
+    private DecodeMemoryPool decodeMemory;
+    private HardwareScanReceiver hardwareReceiver;
+    private CallbackContext hardwareCallbackContext;
     
     // Plugin actions
     private static final String ACTION_INIT = "init";
@@ -49,6 +59,21 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
     private static final String ACTION_REQUEST_PERMISSIONS = "requestPermissions";
     private static final String ACTION_CHECK_PERMISSIONS = "checkPermissions";
     private static final String ACTION_DESTROY = "destroy";
+    private static final String ACTION_START_HARDWARE_SCANNER = "startHardwareScanner";
+    private static final String ACTION_STOP_HARDWARE_SCANNER = "stopHardwareScanner";
+    private static final String ACTION_GET_CAMERAS = "getCameras";
+    private static final String ACTION_WATCH_POWER_EVENTS = "watchPowerEvents";
+    private static final String ACTION_GET_DECODE_STATS = "getDecodeStats";
+    private static final String ACTION_GET_SESSION_STATS = "getSessionStats";
+    
+    @Override
+    protected void pluginInitialize() {
+        BarcodeScannerActivity.setScanListener(this);
+        
+        // Optional <preference name="BarcodeDecodeMemoryMB" value="..." /> in config.xml
+        int budgetMb = preferences.getInteger("BarcodeDecodeMemoryMB", 0);
+        decodeMemory = new DecodeMemoryPool(budgetMb > 0 ? budgetMb * 1024L * 1024L : DecodeMemoryPool.defaultMaxBytes());
+    }
     
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
@@ -85,6 +110,18 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
                 return checkPermissions(callbackContext);
             case ACTION_DESTROY:
                 return destroy(callbackContext);
+            case ACTION_START_HARDWARE_SCANNER:
+                return startHardwareScanner(args, callbackContext);
+            case ACTION_STOP_HARDWARE_SCANNER:
+                return stopHardwareScanner(callbackContext);
+            case ACTION_GET_CAMERAS:
+                return getCameras(callbackContext);
+            case ACTION_WATCH_POWER_EVENTS:
+                return watchPowerEvents(callbackContext);
+            case ACTION_GET_DECODE_STATS:
+                return getDecodeStats(callbackContext);
+            case ACTION_GET_SESSION_STATS:
+                return getSessionStats(callbackContext);
             default:
                 Log.e(TAG, "Unknown action: " + action);
                 callbackContext.error("Unknown action: " + action);
@@ -117,20 +154,80 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
         }
         
         JSONObject options = args.getJSONObject(0);
+        if (!validateRules(options, callbackContext)) {
+            return false;
+        }
         startScanActivity(options, callbackContext);
         return true;
     }
     
-    private boolean decode(JSONArray args, CallbackContext callbackContext) throws JSONException {
-        String base64Data = args.getString(0);
-        String format = args.getString(1);
+    private boolean decode(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        final String base64Data = args.getString(0);
+        final JSONObject options = args.optJSONObject(1) != null ? args.optJSONObject(1) : new JSONObject();
         
-        Log.d(TAG, "Decoding base64 data with format: " + format);
+        Log.d(TAG, "Decoding base64 data, tiled: " + options.optBoolean("tiled", false));
         
-        // This would typically use a barcode decoding library
-        // For now, we'll return an error indicating this needs implementation
-        callbackContext.error("Decode from base64 not yet implemented");
-        return false;
+        // Decoding large photos takes seconds, keep it off the WebCore thread
+        cordova.getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                String data = base64Data;
+                int comma = data.indexOf(',');
+                if (data.startsWith("data:") && comma >= 0) {
+                    data = data.substring(comma + 1);
+                }
+                
+                BarcodeImageDecoder decoder;
+                try {
+                    decoder = new BarcodeImageDecoder(cordova.getActivity(), decodeMemory, options);
+                } catch (JSONException e) {
+                    callbackContext.error("Error decoding image: " + e.getMessage());
+                    return;
+                }
+                
+                // The encoded image and one frame of working memory are admitted together, so a decode
+                // never waits for memory while holding part of the budget itself
+                DecodeMemoryPool.Admission admission;
+                try {
+                    admission = decodeMemory.admit(data.length() * 3L / 4, decoder.getMaxFrameBytes());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    callbackContext.error("Error decoding image: interrupted");
+                    return;
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "Decode memory budget exceeded", e);
+                    callbackContext.error("Error decoding image: " + e.getMessage());
+                    return;
+                }
+                
+                try {
+                    byte[] imageData;
+                    try {
+                        imageData = Base64.decode(data, Base64.DEFAULT);
+                    } catch (IllegalArgumentException e) {
+                        Log.e(TAG, "Invalid base64 data", e);
+                        callbackContext.error("Invalid base64 image data");
+                        return;
+                    }
+                    
+                    JSONObject result = decoder.decode(imageData, admission);
+                    if (result.getBoolean("success")) {
+                        callbackContext.success(result);
+                    } else {
+                        callbackContext.error("No barcode found in image");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    callbackContext.error("Error decoding image: interrupted");
+                } catch (Exception e) {
+                    Log.e(TAG, "Error decoding image", e);
+                    callbackContext.error("Error decoding image: " + e.getMessage());
+                } finally {
+                    decodeMemory.release(admission);
+                }
+            }
+        });
+        return true;
     }
     
     private boolean startScanning(JSONArray args, CallbackContext callbackContext) throws JSONException {
@@ -146,13 +243,32 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
         }
         
         JSONObject options = args.getJSONObject(0);
-        startScanActivity(options, callbackContext);
+        if (!validateRules(options, callbackContext)) {
+            return false;
+        }
+        options.put("continuous", true);
+        
+        continuousCallbackContext = callbackContext;
+        if (options.optBoolean("binaryTransport", false)) {
+            resultBatcher = new ScanResultBatcher(options.optLong("batchWindowMs", 50), new ScanResultBatcher.Sink() {
+                @Override
+                public void onBatch(byte[] batch) {
+                    sendContinuousResult(new PluginResult(PluginResult.Status.OK, batch));
+                }
+            });
+        } else {
+            resultBatcher = null;
+        }
+        
+        // Detections are delivered through onScanResult, not onActivityResult
+        startScanActivity(options, null);
         return true;
     }
     
     private boolean stopScanning(CallbackContext callbackContext) {
-        if (scannerActivity != null) {
-            scannerActivity.finish();
+        BarcodeScannerActivity scanner = getScanner();
+        if (scanner != null) {
+            scanner.finish();
             scannerActivity = null;
         }
         callbackContext.success("Scanning stopped");
@@ -160,16 +276,18 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
     }
     
     private boolean pauseScanning(CallbackContext callbackContext) {
-        if (scannerActivity != null) {
-            scannerActivity.pauseScanning();
+        BarcodeScannerActivity scanner = getScanner();
+        if (scanner != null) {
+            scanner.pauseScanning();
         }
         callbackContext.success("Scanning paused");
         return true;
     }
     
     private boolean resumeScanning(CallbackContext callbackContext) {
-        if (scannerActivity != null) {
-            scannerActivity.resumeScanning();
+        BarcodeScannerActivity scanner = getScanner();
+        if (scanner != null) {
+            scanner.resumeScanning();
         }
         callbackContext.success("Scanning resumed");
         return true;
@@ -177,8 +295,9 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
     
     private boolean switchTorch(JSONArray args, CallbackContext callbackContext) throws JSONException {
         String status = args.getString(0);
-        if (scannerActivity != null) {
-            scannerActivity.switchTorch(status.equals("on"));
+        BarcodeScannerActivity scanner = getScanner();
+        if (scanner != null) {
+            scanner.switchTorch(status.equals("on"));
         }
         callbackContext.success("Torch switched to: " + status);
         return true;
@@ -186,8 +305,9 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
     
     private boolean setZoom(JSONArray args, CallbackContext callbackContext) throws JSONException {
         double zoomFactor = args.getDouble(0);
-        if (scannerActivity != null) {
-            scannerActivity.setZoom(zoomFactor);
+        BarcodeScannerActivity scanner = getScanner();
+        if (scanner != null) {
+            scanner.setZoom(zoomFactor);
         }
         callbackContext.success("Zoom set to: " + zoomFactor);
         return true;
@@ -198,16 +318,18 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
         float x = (float) point.getDouble("x");
         float y = (float) point.getDouble("y");
         
-        if (scannerActivity != null) {
-            scannerActivity.setFocus(x, y);
+        BarcodeScannerActivity scanner = getScanner();
+        if (scanner != null) {
+            scanner.setFocus(x, y);
         }
         callbackContext.success("Focus set to: " + x + ", " + y);
         return true;
     }
     
     private boolean getResolution(CallbackContext callbackContext) {
-        if (scannerActivity != null) {
-            String resolution = scannerActivity.getResolution();
+        BarcodeScannerActivity scanner = getScanner();
+        if (scanner != null) {
+            String resolution = scanner.getResolution();
             callbackContext.success(resolution);
         } else {
             callbackContext.error("Scanner not active");
@@ -228,6 +350,51 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
         return true;
     }
     
+    private boolean getCameras(CallbackContext callbackContext) {
+        try {
+            JSONArray cameras = new JSONArray();
+            for (CameraLensSelector.LensInfo lens : CameraLensSelector.enumerate(cordova.getActivity())) {
+                cameras.put(lens.toJson());
+            }
+            callbackContext.success(cameras);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creating cameras result", e);
+            callbackContext.error("Error enumerating cameras");
+        }
+        return true;
+    }
+    
+    private boolean getSessionStats(CallbackContext callbackContext) {
+        try {
+            JSONObject stats = ScanSession.getStats();
+            BarcodeScannerActivity scanner = getScanner();
+            stats.put("state", scanner != null ? scanner.getSessionState() : "NONE");
+            callbackContext.success(stats);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creating session stats", e);
+            callbackContext.error("Error reading session stats");
+        }
+        return true;
+    }
+    
+    private boolean getDecodeStats(CallbackContext callbackContext) {
+        try {
+            callbackContext.success(decodeMemory.getStats());
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creating decode stats", e);
+            callbackContext.error("Error reading decode stats");
+        }
+        return true;
+    }
+    
+    private boolean watchPowerEvents(CallbackContext callbackContext) {
+        powerEventCallbackContext = callbackContext;
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+        return true;
+    }
+    
     private boolean requestPermissions(CallbackContext callbackContext) {
         if (checkCameraPermission()) {
             callbackContext.success("Permissions already granted");
@@ -252,15 +419,133 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
     }
     
     private boolean destroy(CallbackContext callbackContext) {
-        if (scannerActivity != null) {
-            scannerActivity.finish();
+        BarcodeScannerActivity scanner = getScanner();
+        if (scanner != null) {
+            scanner.finish();
             scannerActivity = null;
         }
+        unregisterHardwareReceiver();
         isInitialized = false;
         callbackContext.success("Scanner destroyed");
         return true;
     }
     
+    private boolean startHardwareScanner(JSONArray args, final CallbackContext callbackContext) throws JSONException {
+        JSONObject options = args.optJSONObject(0) != null ? args.optJSONObject(0) : new JSONObject();
+        
+        HardwareScanReceiver receiver;
+        try {
+            receiver = new HardwareScanReceiver(options, new HardwareScanReceiver.Listener() {
+                @Override
+                public void onHardwareScan(ScanResult result) {
+                    deliverHardwareResult(result);
+                }
+            });
+        } catch (JSONException e) {
+            Log.e(TAG, "Invalid hardware scanner options", e);
+            callbackContext.error("Invalid scan rules: " + e.getMessage());
+            return false;
+        }
+        
+        // Only one receiver at a time; a new call replaces the previous configuration
+        unregisterHardwareReceiver();
+        hardwareReceiver = receiver;
+        hardwareCallbackContext = callbackContext;
+        
+        // Scans come from the imager service in another process, so the receiver must be exported;
+        // with receiverPermission set only broadcasters holding that permission can inject scans
+        String permission = receiver.getReceiverPermission();
+        if (permission == null) {
+            Log.w(TAG, "Hardware scanner receiver is exported without receiverPermission");
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            cordova.getActivity().registerReceiver(receiver, receiver.getIntentFilter(), permission, null,
+                                                   Context.RECEIVER_EXPORTED);
+        } else {
+            cordova.getActivity().registerReceiver(receiver, receiver.getIntentFilter(), permission, null);
+        }
+        
+        PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT);
+        pluginResult.setKeepCallback(true);
+        callbackContext.sendPluginResult(pluginResult);
+        return true;
+    }
+    
+    private boolean stopHardwareScanner(CallbackContext callbackContext) {
+        unregisterHardwareReceiver();
+        callbackContext.success("Hardware scanner stopped");
+        return true;
+    }
+    
+    /**
+     * While a continuous scan runs, hardware scans join its callback, so they are batched and
+     * delivered exactly like camera detections; otherwise they go to the startHardwareScanner callback
+     */
+    private void deliverHardwareResult(ScanResult result) {
+        if (continuousCallbackContext != null) {
+            onScanResult(result);
+            return;
+        }
+        CallbackContext callbackContext = hardwareCallbackContext;
+        if (callbackContext == null) {
+            return;
+        }
+        try {
+            PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, result.toJson());
+            pluginResult.setKeepCallback(true);
+            callbackContext.sendPluginResult(pluginResult);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creating hardware scan result", e);
+        }
+    }
+    
+    private void unregisterHardwareReceiver() {
+        if (hardwareReceiver != null) {
+            try {
+                cordova.getActivity().unregisterReceiver(hardwareReceiver);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Hardware receiver was not registered", e);
+            }
+            hardwareReceiver = null;
+        }
+        if (hardwareCallbackContext != null) {
+            // Release the kept callback on the JS side
+            hardwareCallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
+            hardwareCallbackContext = null;
+        }
+    }
+    
+    @Override
+    public void onPause(boolean multitasking) {
+        // Don't keep pooled decode memory while the app is in the background
+        decodeMemory.trim();
+    }
+    
+    @Override
+    public void onDestroy() {
+        // Don't leave a scanner holding the camera after the webview is gone
+        BarcodeScannerActivity scanner = getScanner();
+        if (scanner != null) {
+            scanner.finish();
+            scannerActivity = null;
+        }
+        unregisterHardwareReceiver();
+        BarcodeScannerActivity.setScanListener(null);
+        ScanPayloadStore.clear();
+        super.onDestroy();
+    }
+    
+    private boolean validateRules(JSONObject options, CallbackContext callbackContext) {
+        try {
+            ScanRuleChain.fromJson(options.optJSONArray("rules"));
+            return true;
+        } catch (JSONException e) {
+            Log.e(TAG, "Invalid scan rules", e);
+            callbackContext.error("Invalid scan rules: " + e.getMessage());
+            return false;
+        }
+    }
+    
     private void startScanActivity(JSONObject options, CallbackContext callbackContext) {
         Intent intent = new Intent(cordova.getActivity(), BarcodeScannerActivity.class);
         intent.putExtra("options", options.toString());
@@ -298,9 +583,100 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
         }
     }
     
+    /**
+     * @return the running scanner, or null once it is finishing even if onScannerStopped has not run yet
+     */
+    private BarcodeScannerActivity getScanner() {
+        BarcodeScannerActivity activity = scannerActivity;
+        if (activity != null && (activity.isFinishing() || activity.isDestroyed())) {
+            scannerActivity = null;
+            return null;
+        }
+        return activity;
+    }
+    
+    @Override
+    public void onScannerStarted(BarcodeScannerActivity activity) {
+        scannerActivity = activity;
+    }
+    
+    @Override
+    public void onScannerStopped(BarcodeScannerActivity activity) {
+        if (scannerActivity == activity) {
+            scannerActivity = null;
+        }
+    }
+    
+    @Override
+    public void onPowerEvent(JSONObject event) {
+        CallbackContext callbackContext = powerEventCallbackContext;
+        if (callbackContext != null) {
+            PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, event);
+            pluginResult.setKeepCallback(true);
+            callbackContext.sendPluginResult(pluginResult);
+        }
+    }
+    
+    @Override
+    public void onScanResult(ScanResult result) {
+        // Called on the detector thread, or the main thread for hardware scans
+        ScanResultBatcher batcher = resultBatcher;
+        if (batcher != null) {
+            batcher.add(result);
+            return;
+        }
+        try {
+            if (result.rawBytes != null) {
+                sendContinuousResult(withRawBytes(result.toJson(), result.rawBytes));
+            } else {
+                sendContinuousResult(new PluginResult(PluginResult.Status.OK, result.toJson()));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error creating result JSON", e);
+        }
+    }
+    
+    /**
+     * Result object plus the raw payload as an ArrayBuffer, sent as one multipart message
+     * JS receives them as two callback arguments, the bytes as an ArrayBuffer; the bridge still
+     * base64-encodes binary parts on the way and cordova.js decodes them, so app code never sees it
+     */
+    private static PluginResult withRawBytes(JSONObject result, byte[] rawBytes) {
+        List<PluginResult> parts = new ArrayList<>();
+        parts.add(new PluginResult(PluginResult.Status.OK, result));
+        parts.add(new PluginResult(PluginResult.Status.OK, rawBytes));
+        return new PluginResult(PluginResult.Status.OK, parts);
+    }
+    
+    private void sendContinuousResult(PluginResult pluginResult) {
+        CallbackContext callbackContext = continuousCallbackContext;
+        if (callbackContext != null) {
+            pluginResult.setKeepCallback(true);
+            callbackContext.sendPluginResult(pluginResult);
+        }
+    }
+    
+    private void finishContinuousScanning(String cancelReason) {
+        if (resultBatcher != null) {
+            resultBatcher.flush();
+            resultBatcher = null;
+        }
+        if (continuousCallbackContext != null) {
+            if (ScanSession.END_TIMEOUT.equals(cancelReason)) {
+                continuousCallbackContext.error("Scan timed out");
+            } else {
+                // Release the kept callback on the JS side
+                continuousCallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.NO_RESULT));
+            }
+            continuousCallbackContext = null;
+        }
+    }
+    
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent intent) {
-        if (requestCode == SCAN_REQUEST) {
+        if (requestCode == SCAN_REQUEST && continuousCallbackContext != null) {
+            finishContinuousScanning(intent != null ? intent.getStringExtra("cancelReason") : null);
+        } else if (requestCode == SCAN_REQUEST) {
             if (resultCode == cordova.getActivity().RESULT_OK && intent != null) {
                 try {
                     String barcodeText = intent.getStringExtra("text");
@@ -309,10 +685,31 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
                     JSONObject result = new JSONObject();
                     result.put("text", barcodeText);
                     result.put("format", barcodeFormat);
+                    result.put("source", "camera");
+                    result.put("rejectedReads", intent.getIntExtra("rejectedReads", 0));
+                    result.put("lens", intent.getStringExtra("lens"));
+                    result.put("lensId", intent.getStringExtra("lensId"));
+                    result.put("requestedLens", intent.getStringExtra("requestedLens"));
+                    result.put("previewSize", intent.getStringExtra("previewSize"));
+                    result.put("cameraOpenMs", intent.getLongExtra("cameraOpenMs", 0));
+                    result.put("lensSwitchMs", intent.getLongExtra("lensSwitchMs", 0));
+                    result.put("lensSwitches", intent.getIntExtra("lensSwitches", 0));
+                    if (intent.hasExtra("consensusVotes")) {
+                        result.put("consensusVotes", intent.getIntExtra("consensusVotes", 0));
+                        result.put("consensusLatencyMs", intent.getLongExtra("consensusLatencyMs", 0));
+                    }
+                    byte[] rawBytes = ScanPayloadStore.take(intent.getStringExtra("rawBytesToken"));
+                    if (rawBytes != null) {
+                        result.put("rawBytesLength", rawBytes.length);
+                    }
                     result.put("success", true);
                     
                     if (currentCallbackContext != null) {
-                        currentCallbackContext.success(result);
+                        if (rawBytes != null) {
+                            currentCallbackContext.sendPluginResult(withRawBytes(result, rawBytes));
+                        } else {
+                            currentCallbackContext.success(result);
+                        }
                         currentCallbackContext = null;
                     }
                 } catch (JSONException e) {
@@ -324,7 +721,9 @@ public class BarcodeScannerPlugin extends CordovaPlugin {
                 }
             } else {
                 if (currentCallbackContext != null) {
-                    currentCallbackContext.error("Scan cancelled or failed");
+                    boolean timedOut = intent != null
+                        && ScanSession.END_TIMEOUT.equals(intent.getStringExtra("cancelReason"));
+                    currentCallbackContext.error(timedOut ? "Scan timed out" : "Scan cancelled or failed");
                     currentCallbackContext = null;
                 }
             }
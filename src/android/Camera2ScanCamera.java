@@ -0,0 +1,524 @@
+package com.mccbarcode;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.OutputConfiguration;
+import android.hardware.camera2.params.SessionConfiguration;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScanCamera on Camera2: opens any lens, including physical lenses of a logical multi-camera,
+ * hands YUV frames to the detector as NV21 and watches the autofocus state
+ *
+ * When continuous autofocus stays unfocused for focusTimeoutMs, e.g. because the code is
+ * closer than the lens can focus, onFocusFailed is reported once until focus is regained
+ */
+class Camera2ScanCamera implements ScanCamera {
+
+    private static final String TAG = "Camera2ScanCamera";
+    private static final long OPEN_CLOSE_TIMEOUT_MS = 2500;
+
+    private final Context context;
+    private final CameraLensSelector.LensInfo lens;
+    private final int requestedWidth;
+    private final int requestedHeight;
+    private final float requestedFps;
+    // Surface.ROTATION_* of the activity display, taken when the camera is built
+    private final int displayRotation;
+    private final long focusTimeoutMs;
+    private final ScanCamera.SharedDetector detector;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Held while the device is opening, so stop() never races a pending open
+    private final Semaphore openCloseLock = new Semaphore(1);
+
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    private HandlerThread frameThread;
+    private Handler frameHandler;
+    private volatile CameraDevice camera;
+    private volatile CameraCaptureSession session;
+    private ImageReader imageReader;
+    private Surface previewSurface;
+    private Size previewSize;
+    private Range<Integer> fpsRange;
+    private int afMode = CaptureRequest.CONTROL_AF_MODE_OFF;
+    private int rotation;
+    private byte[] nv21;
+    private int frameId = 0;
+    private long openStart;
+    private volatile boolean running = false;
+
+    // Only touched on the camera thread
+    private long unfocusedSince = -1;
+    private boolean focusFailureReported = false;
+
+    Camera2ScanCamera(Context context, CameraLensSelector.LensInfo lens, int width, int height, float fps,
+                      int displayRotation, long focusTimeoutMs, Detector<Barcode> sharedDetector, Detector.Processor<Barcode> processor,
+                      Listener listener) {
+        this.context = context.getApplicationContext();
+        this.lens = lens;
+        this.requestedWidth = width;
+        this.requestedHeight = height;
+        this.requestedFps = fps;
+        this.displayRotation = displayRotation;
+        this.focusTimeoutMs = focusTimeoutMs;
+        this.detector = new ScanCamera.SharedDetector(sharedDetector, processor);
+        this.listener = listener;
+    }
+
+    @Override
+    public void start(SurfaceHolder holder) throws IOException {
+        if (running) {
+            return;
+        }
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        if (manager == null) {
+            throw new IOException("Camera service not available");
+        }
+
+        CameraCharacteristics characteristics;
+        try {
+            // A physical lens reports its own stream sizes and focus modes
+            characteristics = manager.getCameraCharacteristics(lens.id);
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            throw new IOException("Camera " + lens.id + " not available", e);
+        }
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            throw new IOException("Camera " + lens.id + " has no stream configurations");
+        }
+        previewSize = chooseSize(map.getOutputSizes(ImageFormat.YUV_420_888), requestedWidth, requestedHeight);
+        fpsRange = chooseFpsRange(characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES), requestedFps);
+        afMode = chooseAfMode(characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES));
+        rotation = getFrameRotation(characteristics);
+        nv21 = new byte[previewSize.getWidth() * previewSize.getHeight() * 3 / 2];
+        unfocusedSince = -1;
+        focusFailureReported = false;
+
+        // Without a fixed size the camera rounds the surface to a supported size itself
+        holder.setFixedSize(previewSize.getWidth(), previewSize.getHeight());
+        previewSurface = holder.getSurface();
+
+        cameraThread = new HandlerThread("ScanCamera2");
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        frameThread = new HandlerThread("ScanCamera2Frames");
+        frameThread.start();
+        frameHandler = new Handler(frameThread.getLooper());
+
+        imageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+        imageReader.setOnImageAvailableListener(frameListener, frameHandler);
+
+        running = true;
+        openStart = SystemClock.elapsedRealtime();
+        try {
+            if (!openCloseLock.tryAcquire(OPEN_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for the previous camera to close");
+            }
+            manager.openCamera(lens.getOpenId(), stateCallback, cameraHandler);
+        } catch (CameraAccessException | SecurityException | IllegalArgumentException e) {
+            openCloseLock.release();
+            stop();
+            throw new IOException("Unable to open camera " + lens.getOpenId(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop();
+            throw new IOException("Interrupted while opening camera", e);
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        boolean locked = false;
+        try {
+            locked = openCloseLock.tryAcquire(OPEN_CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (!locked) {
+                Log.w(TAG, "Timed out waiting for camera " + lens.getOpenId() + " to open");
+            }
+            CameraCaptureSession currentSession = session;
+            session = null;
+            if (currentSession != null) {
+                currentSession.close();
+            }
+            CameraDevice device = camera;
+            camera = null;
+            if (device != null) {
+                device.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (locked) {
+                openCloseLock.release();
+            }
+        }
+
+        // Let a frame in flight reach the detector before the reader goes away
+        quit(cameraThread);
+        cameraThread = null;
+        quit(frameThread);
+        frameThread = null;
+        if (imageReader != null) {
+            imageReader.close();
+            imageReader = null;
+        }
+    }
+
+    @Override
+    public void release() {
+        stop();
+        detector.release();
+    }
+
+    @Override
+    public String getPreviewSize() {
+        return previewSize != null ? previewSize.getWidth() + "x" + previewSize.getHeight() : null;
+    }
+
+    @Override
+    public CameraLensSelector.LensInfo getLens() {
+        return lens;
+    }
+
+    private static void quit(HandlerThread thread) {
+        if (thread == null) {
+            return;
+        }
+        thread.quitSafely();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice device) {
+            openCloseLock.release();
+            if (!running) {
+                device.close();
+                return;
+            }
+            camera = device;
+            try {
+                createSession(device);
+            } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
+                reportError(e);
+            }
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice device) {
+            openCloseLock.release();
+            device.close();
+            camera = null;
+            reportError(new IOException("Camera " + lens.getOpenId() + " disconnected"));
+        }
+
+        @Override
+        public void onError(CameraDevice device, int error) {
+            openCloseLock.release();
+            device.close();
+            camera = null;
+            reportError(new IOException("Camera " + lens.getOpenId() + " error " + error));
+        }
+    };
+
+    private void createSession(CameraDevice device) throws CameraAccessException {
+        List<Surface> targets = Arrays.asList(previewSurface, imageReader.getSurface());
+        if (lens.logicalId != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            // Route both streams to the physical lens of the logical camera
+            List<OutputConfiguration> outputs = new ArrayList<>();
+            for (Surface target : targets) {
+                OutputConfiguration output = new OutputConfiguration(target);
+                output.setPhysicalCameraId(lens.id);
+                outputs.add(output);
+            }
+            Executor executor = new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    cameraHandler.post(command);
+                }
+            };
+            device.createCaptureSession(new SessionConfiguration(
+                SessionConfiguration.SESSION_REGULAR, outputs, executor, sessionCallback));
+        } else {
+            device.createCaptureSession(targets, sessionCallback, cameraHandler);
+        }
+    }
+
+    private final CameraCaptureSession.StateCallback sessionCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(CameraCaptureSession configured) {
+            CameraDevice device = camera;
+            if (!running || device == null) {
+                configured.close();
+                return;
+            }
+            session = configured;
+            try {
+                CaptureRequest.Builder request = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                request.addTarget(previewSurface);
+                request.addTarget(imageReader.getSurface());
+                request.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+                if (fpsRange != null) {
+                    request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+                }
+                configured.setRepeatingRequest(request.build(), captureCallback, cameraHandler);
+            } catch (CameraAccessException | IllegalStateException e) {
+                reportError(e);
+                return;
+            }
+
+            final long openMs = SystemClock.elapsedRealtime() - openStart;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (running) {
+                        listener.onCameraOpened(Camera2ScanCamera.this, openMs);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession failed) {
+            reportError(new IOException("Camera " + lens.getOpenId() + " session configuration failed"));
+        }
+    };
+
+    private final CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession captureSession, CaptureRequest request,
+                                       TotalCaptureResult result) {
+            CaptureResult lensResult = result;
+            if (lens.logicalId != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                CaptureResult physical = result.getPhysicalCameraResults().get(lens.id);
+                if (physical != null) {
+                    lensResult = physical;
+                }
+            }
+            trackFocus(lensResult.get(CaptureResult.CONTROL_AF_STATE), SystemClock.elapsedRealtime());
+        }
+    };
+
+    private void trackFocus(Integer afState, long now) {
+        if (afMode == CaptureRequest.CONTROL_AF_MODE_OFF || afState == null || focusTimeoutMs <= 0) {
+            return;
+        }
+        if (afState == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED
+                || afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED) {
+            unfocusedSince = -1;
+            focusFailureReported = false;
+            return;
+        }
+        if (afState == CaptureResult.CONTROL_AF_STATE_INACTIVE) {
+            return;
+        }
+        // Scanning or unfocused: continuous AF hunts between the two when the subject is too close
+        if (unfocusedSince < 0) {
+            unfocusedSince = now;
+        } else if (!focusFailureReported && now - unfocusedSince >= focusTimeoutMs) {
+            focusFailureReported = true;
+            Log.d(TAG, "Lens " + lens.type + " unfocused for " + (now - unfocusedSince) + "ms");
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (running) {
+                        listener.onFocusFailed(Camera2ScanCamera.this);
+                    }
+                }
+            });
+        }
+    }
+
+    private final ImageReader.OnImageAvailableListener frameListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+            Frame frame;
+            try {
+                frame = new Frame.Builder()
+                        .setImageData(ByteBuffer.wrap(toNv21(image, nv21)), image.getWidth(), image.getHeight(), ImageFormat.NV21)
+                        .setId(frameId++)
+                        .setTimestampMillis(image.getTimestamp() / 1000000)
+                        .setRotation(rotation)
+                        .build();
+            } finally {
+                image.close();
+            }
+            if (!running) {
+                return;
+            }
+            try {
+                // The buffer is reused for the next frame; receiveFrame runs the detector synchronously
+                detector.receiveFrame(frame);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error processing frame", e);
+            }
+        }
+    };
+
+    private void reportError(final Exception error) {
+        Log.e(TAG, "Camera " + lens.getOpenId() + " failed", error);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (running) {
+                    listener.onCameraError(Camera2ScanCamera.this, error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Copy a YUV_420_888 image into NV21 layout: Y plane, then interleaved V/U
+     */
+    static byte[] toNv21(Image image, byte[] out) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane[] planes = image.getPlanes();
+
+        int position = 0;
+        ByteBuffer y = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int yPixelStride = planes[0].getPixelStride();
+        for (int row = 0; row < height; row++) {
+            if (yPixelStride == 1) {
+                y.position(row * yRowStride);
+                y.get(out, position, width);
+                position += width;
+            } else {
+                for (int col = 0; col < width; col++) {
+                    out[position++] = y.get(row * yRowStride + col * yPixelStride);
+                }
+            }
+        }
+
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int uRowStride = planes[1].getRowStride();
+        int uPixelStride = planes[1].getPixelStride();
+        int vRowStride = planes[2].getRowStride();
+        int vPixelStride = planes[2].getPixelStride();
+        for (int row = 0; row < height / 2; row++) {
+            for (int col = 0; col < width / 2; col++) {
+                out[position++] = v.get(row * vRowStride + col * vPixelStride);
+                out[position++] = u.get(row * uRowStride + col * uPixelStride);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Supported size closest to the requested one
+     */
+    static Size chooseSize(Size[] sizes, int width, int height) {
+        Size best = null;
+        int bestDiff = Integer.MAX_VALUE;
+        for (Size size : sizes) {
+            int diff = Math.abs(size.getWidth() - width) + Math.abs(size.getHeight() - height);
+            if (diff < bestDiff) {
+                best = size;
+                bestDiff = diff;
+            }
+        }
+        return best != null ? best : new Size(width, height);
+    }
+
+    /**
+     * Highest frame rate range not above the requested fps, else the slowest range
+     */
+    private static Range<Integer> chooseFpsRange(Range<Integer>[] ranges, float fps) {
+        if (ranges == null || ranges.length == 0) {
+            return null;
+        }
+        Range<Integer> best = null;
+        Range<Integer> slowest = ranges[0];
+        for (Range<Integer> range : ranges) {
+            if (range.getUpper() < slowest.getUpper()) {
+                slowest = range;
+            }
+            if (range.getUpper() > fps) {
+                continue;
+            }
+            // Prefer the fastest, then the widest range so exposure can stretch in low light
+            if (best == null || range.getUpper() > best.getUpper()
+                    || (range.getUpper().equals(best.getUpper()) && range.getLower() < best.getLower())) {
+                best = range;
+            }
+        }
+        return best != null ? best : slowest;
+    }
+
+    private static int chooseAfMode(int[] modes) {
+        int[] preferred = {
+            CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE,
+            CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO,
+            CaptureRequest.CONTROL_AF_MODE_AUTO
+        };
+        if (modes != null) {
+            for (int mode : preferred) {
+                for (int available : modes) {
+                    if (available == mode) {
+                        return mode;
+                    }
+                }
+            }
+        }
+        return CaptureRequest.CONTROL_AF_MODE_OFF;
+    }
+
+    /**
+     * Frame.ROTATION_* the detector needs to see the image upright
+     */
+    private int getFrameRotation(CameraCharacteristics characteristics) {
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        int sensor = sensorOrientation != null ? sensorOrientation : 90;
+        int display = displayRotation * 90;
+        int degrees = lens.front ? (sensor + display) % 360 : (sensor - display + 360) % 360;
+        return degrees / 90;
+    }
+}
@@ -0,0 +1,239 @@
+package com.mccbarcode;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Enumerates the device cameras and resolves the "lens" scan option
+ *
+ * Lenses behind a logical multi-camera (API 28+) are listed as physical cameras and opened
+ * through their logical camera. The first back and first front camera can be opened by the
+ * Vision CameraSource; every other lens, and the auto mode, go through Camera2
+ */
+public class CameraLensSelector {
+
+    private static final String TAG = "CameraLensSelector";
+
+    public static final String LENS_MAIN = "main";
+    public static final String LENS_ULTRA_WIDE = "ultraWide";
+    public static final String LENS_MACRO = "macro";
+    public static final String LENS_TELEPHOTO = "telephoto";
+    public static final String LENS_FRONT = "front";
+    public static final String LENS_AUTO = "auto";
+
+    // Relative to the main lens focal length
+    private static final float ULTRA_WIDE_FOCAL_RATIO = 0.8f;
+    private static final float TELEPHOTO_FOCAL_RATIO = 1.5f;
+    // A lens focusing at half the main lens distance or closer is treated as macro
+    private static final float MACRO_FOCUS_RATIO = 0.5f;
+
+    static class LensInfo {
+        final String id;
+        // Logical camera to open for a physical lens, null for a standalone camera
+        final String logicalId;
+        final String type;
+        final boolean front;
+        final float focalLength;
+        // Closest focus distance in cm, 0 for fixed-focus lenses
+        final float minFocusDistanceCm;
+        // The first camera of its facing, the one CameraSource opens
+        final boolean primary;
+
+        LensInfo(String id, String logicalId, String type, boolean front, float focalLength,
+                 float minFocusDistanceCm, boolean primary) {
+            this.id = id;
+            this.logicalId = logicalId;
+            this.type = type;
+            this.front = front;
+            this.focalLength = focalLength;
+            this.minFocusDistanceCm = minFocusDistanceCm;
+            this.primary = primary;
+        }
+
+        String getOpenId() {
+            return logicalId != null ? logicalId : id;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("lens", type);
+            json.put("focalLength", focalLength);
+            json.put("minFocusDistanceCm", minFocusDistanceCm);
+            json.put("physical", logicalId != null);
+            return json;
+        }
+    }
+
+    /**
+     * List the cameras reported by Camera2, classified by lens type
+     */
+    public static List<LensInfo> enumerate(Context context) {
+        List<LensInfo> lenses = new ArrayList<>();
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        if (manager == null) {
+            return lenses;
+        }
+
+        try {
+            String[] ids = manager.getCameraIdList();
+            Set<String> seen = new HashSet<>();
+            for (String id : ids) {
+                seen.add(id);
+            }
+
+            LensInfo main = null;
+            boolean frontFound = false;
+            for (String id : ids) {
+                CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                if (facing == null || facing == CameraCharacteristics.LENS_FACING_EXTERNAL) {
+                    continue;
+                }
+                boolean front = facing == CameraCharacteristics.LENS_FACING_FRONT;
+                float focalLength = minFocalLength(characteristics);
+                float minFocusCm = minFocusDistanceCm(characteristics);
+
+                LensInfo lens;
+                if (front) {
+                    lens = new LensInfo(id, null, LENS_FRONT, true, focalLength, minFocusCm, !frontFound);
+                    frontFound = true;
+                } else if (main == null) {
+                    lens = new LensInfo(id, null, LENS_MAIN, false, focalLength, minFocusCm, true);
+                    main = lens;
+                } else {
+                    lens = new LensInfo(id, null, classify(main, focalLength, minFocusCm), false, focalLength, minFocusCm, false);
+                }
+                lenses.add(lens);
+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P && !front) {
+                    addPhysicalLenses(manager, characteristics, id, main, seen, lenses);
+                }
+            }
+        } catch (CameraAccessException | IllegalArgumentException e) {
+            Log.e(TAG, "Error enumerating cameras", e);
+        }
+        return lenses;
+    }
+
+    /**
+     * Physical lenses of a logical back camera that are not listed as cameras of their own
+     */
+    private static void addPhysicalLenses(CameraManager manager, CameraCharacteristics logical, String logicalId,
+                                          LensInfo main, Set<String> seen, List<LensInfo> lenses)
+            throws CameraAccessException {
+        int[] capabilities = logical.get(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        boolean multiCamera = false;
+        if (capabilities != null) {
+            for (int capability : capabilities) {
+                multiCamera |= capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_LOGICAL_MULTI_CAMERA;
+            }
+        }
+        if (!multiCamera) {
+            return;
+        }
+        for (String physicalId : logical.getPhysicalCameraIds()) {
+            if (!seen.add(physicalId)) {
+                continue;
+            }
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(physicalId);
+            float focalLength = minFocalLength(characteristics);
+            float minFocusCm = minFocusDistanceCm(characteristics);
+            lenses.add(new LensInfo(physicalId, logicalId, classify(main, focalLength, minFocusCm),
+                                    false, focalLength, minFocusCm, false));
+        }
+    }
+
+    static String classify(LensInfo main, float focalLength, float minFocusCm) {
+        if (main.focalLength > 0 && focalLength < main.focalLength * ULTRA_WIDE_FOCAL_RATIO) {
+            return LENS_ULTRA_WIDE;
+        }
+        if (main.focalLength > 0 && focalLength > main.focalLength * TELEPHOTO_FOCAL_RATIO) {
+            return LENS_TELEPHOTO;
+        }
+        if (minFocusCm > 0 && main.minFocusDistanceCm > 0 && minFocusCm <= main.minFocusDistanceCm * MACRO_FOCUS_RATIO) {
+            return LENS_MACRO;
+        }
+        return LENS_MAIN;
+    }
+
+    /**
+     * Pick the camera for the requested lens; "auto" starts on the main lens
+     * Falls back to the main back lens when the device has no such lens
+     * @return null only if the device reports no camera at all
+     */
+    public static LensInfo resolve(String requested, List<LensInfo> lenses) {
+        String type = LENS_AUTO.equals(requested) ? LENS_MAIN : requested;
+        for (LensInfo lens : lenses) {
+            if (lens.type.equals(type) && (lens.primary || !LENS_MAIN.equals(type))) {
+                return lens;
+            }
+        }
+        Log.w(TAG, "No " + requested + " lens, using main lens");
+        for (LensInfo lens : lenses) {
+            if (!lens.front) {
+                return lens;
+            }
+        }
+        return lenses.isEmpty() ? null : lenses.get(0);
+    }
+
+    /**
+     * Auto mode: the current lens can't focus on the code
+     * From the main lens go to the back lens that focuses closest (macro, else ultra-wide),
+     * from any other lens go back to the main lens
+     * @return null if there is nothing to switch to
+     */
+    public static LensInfo nextAutoLens(LensInfo current, List<LensInfo> lenses) {
+        if (!current.primary || current.front) {
+            return resolve(LENS_MAIN, lenses);
+        }
+        LensInfo closest = null;
+        for (LensInfo lens : lenses) {
+            if (lens.front || lens == current || lens.minFocusDistanceCm <= 0
+                    || (!LENS_MACRO.equals(lens.type) && !LENS_ULTRA_WIDE.equals(lens.type))) {
+                continue;
+            }
+            if (current.minFocusDistanceCm > 0 && lens.minFocusDistanceCm >= current.minFocusDistanceCm) {
+                continue;
+            }
+            if (closest == null || lens.minFocusDistanceCm < closest.minFocusDistanceCm) {
+                closest = lens;
+            }
+        }
+        return closest;
+    }
+
+    private static float minFocalLength(CameraCharacteristics characteristics) {
+        float[] focalLengths = characteristics.get(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS);
+        if (focalLengths == null || focalLengths.length == 0) {
+            return 0;
+        }
+        float min = focalLengths[0];
+        for (float focalLength : focalLengths) {
+            min = Math.min(min, focalLength);
+        }
+        return min;
+    }
+
+    private static float minFocusDistanceCm(CameraCharacteristics characteristics) {
+        // Reported in diopters (1/m); 0 means fixed focus
+        Float diopters = characteristics.get(CameraCharacteristics.LENS_INFO_MINIMUM_FOCUS_DISTANCE);
+        if (diopters == null || diopters <= 0) {
+            return 0;
+        }
+        return 100f / diopters;
+    }
+}
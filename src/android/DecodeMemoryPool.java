@@ -0,0 +1,353 @@
+package com.mccbarcode;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Memory budget shared by all decode() calls
+ *
+ * Tile bitmaps and luminance buffers are pooled for reuse (bitmaps through inBitmap);
+ * pooled memory counts as resident, and is evicted first when a caller needs room.
+ * A decode is admitted with its encoded image plus headroom for one frame, reserved in a
+ * single step, so an admitted decode can always work through its tiles one at a time.
+ * Extra frames for parallel tiles come from the rest of the budget; when it is used up those
+ * callers wait, holding nothing, until memory is released, or fail after the timeout
+ */
+public class DecodeMemoryPool {
+
+    private static final long DEFAULT_WAIT_TIMEOUT_MS = 30000;
+
+    private final List<Bitmap> bitmaps = new ArrayList<>();
+    private final List<byte[]> buffers = new ArrayList<>();
+
+    private final long maxBytes;
+    private final long waitTimeoutMs;
+    private long inUseBytes = 0;
+    private long pooledBytes = 0;
+    private long peakBytes = 0;
+
+    private int bitmapReuses = 0;
+    private int bitmapAllocations = 0;
+    private int bufferReuses = 0;
+    private int bufferAllocations = 0;
+    private int waits = 0;
+    private long waitTimeMs = 0;
+
+    public DecodeMemoryPool(long maxBytes) {
+        this(maxBytes, DEFAULT_WAIT_TIMEOUT_MS);
+    }
+
+    DecodeMemoryPool(long maxBytes, long waitTimeoutMs) {
+        this.maxBytes = maxBytes;
+        this.waitTimeoutMs = waitTimeoutMs;
+    }
+
+    /**
+     * Default budget: a quarter of the heap, at most 96 MB
+     */
+    public static long defaultMaxBytes() {
+        return Math.min(96L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Memory held by one decode: the encoded image and the headroom for its first frame
+     */
+    public static final class Admission {
+        private long imageBytes;
+        private long frameBytes;
+        // Set while a frame occupies the headroom
+        private boolean frameInUse;
+        private boolean released;
+
+        Admission(long imageBytes, long frameBytes) {
+            this.imageBytes = imageBytes;
+            this.frameBytes = frameBytes;
+        }
+    }
+
+    /**
+     * A bitmap and a luminance buffer covered by a single reservation
+     */
+    public static final class FrameMemory {
+        public final Bitmap bitmap;
+        public final byte[] buffer;
+        final long bitmapBytes;
+        // Non-null when the frame lives in its decode's headroom instead of the shared budget
+        final Admission admission;
+        private int heldParts = 2;
+
+        FrameMemory(Bitmap bitmap, byte[] buffer, long bitmapBytes, Admission admission) {
+            this.bitmap = bitmap;
+            this.buffer = buffer;
+            this.bitmapBytes = bitmapBytes;
+            this.admission = admission;
+        }
+    }
+
+    /**
+     * Admit a decode: reserve its encoded image and the headroom for one frame together,
+     * waiting while other decodes hold the budget
+     * A single admission larger than the whole budget is let through when nothing else runs
+     * @throws IllegalStateException if the budget did not free up within the timeout
+     */
+    public synchronized Admission admit(long imageBytes, long frameBytes) throws InterruptedException {
+        long waitStart = SystemClock.elapsedRealtime();
+        long bytes = imageBytes + frameBytes;
+        boolean waited = false;
+        while (inUseBytes + pooledBytes + bytes > maxBytes) {
+            if (pooledBytes > 0) {
+                evictOne();
+            } else if (inUseBytes == 0) {
+                break;
+            } else {
+                waitUntil(waitStart);
+                waited = true;
+            }
+        }
+        take(bytes, waited, waitStart);
+        return new Admission(imageBytes, frameBytes);
+    }
+
+    /**
+     * Shrink an admission once the real image size and largest frame are known; never waits
+     */
+    public synchronized void trim(Admission admission, long imageBytes, long frameBytes) {
+        long freed = 0;
+        if (imageBytes < admission.imageBytes) {
+            freed += admission.imageBytes - imageBytes;
+            admission.imageBytes = imageBytes;
+        }
+        if (frameBytes < admission.frameBytes) {
+            freed += admission.frameBytes - frameBytes;
+            admission.frameBytes = frameBytes;
+        }
+        give(freed);
+    }
+
+    /**
+     * Give back everything an admission holds; frames taken with it must be released first
+     */
+    public synchronized void release(Admission admission) {
+        if (!admission.released) {
+            admission.released = true;
+            give(admission.imageBytes + admission.frameBytes);
+        }
+    }
+
+    /**
+     * Reserve a width x height ARGB_8888 bitmap and a buffer of bufferLength bytes together,
+     * then fill both from the pool where possible; release them with releaseBitmap / releaseBuffer
+     * The frame goes into the admission's headroom when that is free, otherwise into the budget
+     * @throws IllegalStateException if the budget did not free up within the timeout
+     */
+    public FrameMemory acquireFrame(int width, int height, int bufferLength, Admission admission)
+            throws InterruptedException {
+        long bitmapBytes = (long) width * height * 4;
+        boolean headroom = reserveFrame(bitmapBytes + bufferLength, admission);
+
+        Bitmap bitmap = null;
+        try {
+            bitmap = takeBitmap(width, height);
+            return new FrameMemory(bitmap, takeBuffer(bufferLength), bitmapBytes, headroom ? admission : null);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            synchronized (this) {
+                if (bitmap != null) {
+                    recycleOrPool(bitmap, bitmapBytes);
+                }
+                if (headroom) {
+                    admission.frameInUse = false;
+                } else {
+                    inUseBytes -= bitmapBytes + bufferLength;
+                }
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the frame took the admission's headroom, false if it was reserved from the budget
+     */
+    private synchronized boolean reserveFrame(long bytes, Admission admission) throws InterruptedException {
+        long waitStart = SystemClock.elapsedRealtime();
+        boolean waited = false;
+        while (true) {
+            if (!admission.frameInUse && bytes <= admission.frameBytes) {
+                admission.frameInUse = true;
+                take(0, waited, waitStart);
+                return true;
+            }
+            if (inUseBytes + pooledBytes + bytes <= maxBytes) {
+                take(bytes, waited, waitStart);
+                return false;
+            }
+            if (pooledBytes > 0) {
+                evictOne();
+            } else if (!admission.frameInUse && inUseBytes <= admission.imageBytes + admission.frameBytes) {
+                // Only this decode is running and its headroom is too small for the frame
+                take(bytes, waited, waitStart);
+                return false;
+            } else {
+                // Whoever holds the budget, this decode's own headroom included, is making progress
+                waitUntil(waitStart);
+                waited = true;
+            }
+        }
+    }
+
+    private void waitUntil(long waitStart) throws InterruptedException {
+        long remaining = waitStart + waitTimeoutMs - SystemClock.elapsedRealtime();
+        if (remaining <= 0) {
+            throw new IllegalStateException("Decode memory budget exceeded");
+        }
+        wait(remaining);
+    }
+
+    private void take(long bytes, boolean waited, long waitStart) {
+        if (waited) {
+            waits++;
+            waitTimeMs += SystemClock.elapsedRealtime() - waitStart;
+        }
+        inUseBytes += bytes;
+        peakBytes = Math.max(peakBytes, inUseBytes + pooledBytes);
+    }
+
+    private void give(long bytes) {
+        inUseBytes = Math.max(0, inUseBytes - bytes);
+        notifyAll();
+    }
+
+    /**
+     * Pooled bitmap of this size, or a new one; the caller's reservation already covers it
+     */
+    private Bitmap takeBitmap(int width, int height) {
+        synchronized (this) {
+            for (Iterator<Bitmap> it = bitmaps.iterator(); it.hasNext(); ) {
+                Bitmap bitmap = it.next();
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    it.remove();
+                    pooledBytes -= bitmap.getAllocationByteCount();
+                    bitmapReuses++;
+                    return bitmap;
+                }
+            }
+            bitmapAllocations++;
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private byte[] takeBuffer(int length) {
+        synchronized (this) {
+            for (Iterator<byte[]> it = buffers.iterator(); it.hasNext(); ) {
+                byte[] buffer = it.next();
+                if (buffer.length == length) {
+                    it.remove();
+                    pooledBytes -= length;
+                    bufferReuses++;
+                    return buffer;
+                }
+            }
+            bufferAllocations++;
+        }
+        return new byte[length];
+    }
+
+    /**
+     * Give back the frame's bitmap, or the one decoded in its place; recycled bitmaps are not pooled
+     */
+    public synchronized void releaseBitmap(FrameMemory frame, Bitmap bitmap) {
+        if (frame.admission == null) {
+            inUseBytes = Math.max(0, inUseBytes - frame.bitmapBytes);
+        }
+        recycleOrPool(bitmap, frame.bitmapBytes);
+        partReleased(frame);
+    }
+
+    public synchronized void releaseBuffer(FrameMemory frame) {
+        if (frame.admission == null) {
+            inUseBytes = Math.max(0, inUseBytes - frame.buffer.length);
+        }
+        if (inUseBytes + pooledBytes + frame.buffer.length <= maxBytes) {
+            buffers.add(frame.buffer);
+            pooledBytes += frame.buffer.length;
+        }
+        partReleased(frame);
+    }
+
+    /**
+     * Give back both parts of a frame, e.g. when decoding into it failed
+     */
+    public void releaseFrame(FrameMemory frame, Bitmap bitmap) {
+        synchronized (this) {
+            releaseBitmap(frame, bitmap);
+            releaseBuffer(frame);
+        }
+    }
+
+    private void recycleOrPool(Bitmap bitmap, long size) {
+        if (bitmap.isMutable() && !bitmap.isRecycled() && bitmap.getAllocationByteCount() == size
+                && inUseBytes + pooledBytes + size <= maxBytes) {
+            bitmaps.add(bitmap);
+            pooledBytes += size;
+        } else if (!bitmap.isRecycled()) {
+            bitmap.recycle();
+        }
+    }
+
+    private void partReleased(FrameMemory frame) {
+        if (--frame.heldParts == 0 && frame.admission != null) {
+            frame.admission.frameInUse = false;
+        }
+        notifyAll();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Drop every pooled bitmap and buffer, e.g. on low memory
+     */
+    public synchronized void trim() {
+        while (pooledBytes > 0) {
+            evictOne();
+        }
+    }
+
+    public synchronized JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("maxBytes", maxBytes);
+        stats.put("residentBytes", inUseBytes + pooledBytes);
+        stats.put("inUseBytes", inUseBytes);
+        stats.put("pooledBytes", pooledBytes);
+        stats.put("peakBytes", peakBytes);
+        stats.put("pooledBitmaps", bitmaps.size());
+        stats.put("pooledBuffers", buffers.size());
+        stats.put("bitmapReuses", bitmapReuses);
+        stats.put("bitmapAllocations", bitmapAllocations);
+        stats.put("bufferReuses", bufferReuses);
+        stats.put("bufferAllocations", bufferAllocations);
+        stats.put("waits", waits);
+        stats.put("waitTimeMs", waitTimeMs);
+        return stats;
+    }
+
+    private void evictOne() {
+        if (!bitmaps.isEmpty()) {
+            Bitmap bitmap = bitmaps.remove(0);
+            pooledBytes -= bitmap.getAllocationByteCount();
+            bitmap.recycle();
+        } else if (!buffers.isEmpty()) {
+            pooledBytes -= buffers.remove(0).length;
+        } else {
+            pooledBytes = 0;
+        }
+    }
+}
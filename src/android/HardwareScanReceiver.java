@@ -0,0 +1,163 @@
+package com.mccbarcode;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Receives scans from built-in hardware imagers that deliver results as broadcast Intents
+ * (DataWedge-style) and converts them to the same result schema as camera scans
+ */
+public class HardwareScanReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "HardwareScanReceiver";
+
+    // The action is this plugin's own and must match the imager profile; the extras are the names
+    // DataWedge uses for Intent output, other vendors are configured through the options
+    private static final String DEFAULT_ACTION = "com.mccbarcode.SCAN";
+    private static final String DEFAULT_DATA_EXTRA = "com.symbol.datawedge.data_string";
+    private static final String DEFAULT_FORMAT_EXTRA = "com.symbol.datawedge.label_type";
+    private static final String LABEL_TYPE_PREFIX = "LABEL-TYPE-";
+    private static final long DEFAULT_DUPLICATE_WINDOW_MS = 1000;
+
+    /**
+     * Callback for scans that passed validation and duplicate suppression
+     */
+    public interface Listener {
+        void onHardwareScan(ScanResult result);
+    }
+
+    private final String action;
+    private final String category;
+    private final String dataExtra;
+    private final String formatExtra;
+    // Permission the broadcaster must hold; null accepts scans from any app
+    private final String receiverPermission;
+    private final long duplicateWindowMs;
+    private final ScanRuleChain ruleChain;
+    private final Listener listener;
+
+    private String lastValue;
+    private long lastValueTime;
+    private int suppressedCount = 0;
+
+    /**
+     * @throws JSONException if the "rules" option is invalid
+     */
+    public HardwareScanReceiver(JSONObject options, Listener listener) throws JSONException {
+        this.action = options.optString("intentAction", DEFAULT_ACTION);
+        this.category = options.optString("intentCategory", null);
+        this.dataExtra = options.optString("dataExtra", DEFAULT_DATA_EXTRA);
+        this.formatExtra = options.optString("formatExtra", DEFAULT_FORMAT_EXTRA);
+        String permission = options.optString("receiverPermission", null);
+        this.receiverPermission = permission != null && !permission.isEmpty() ? permission : null;
+        this.duplicateWindowMs = options.optLong("duplicateWindowMs", DEFAULT_DUPLICATE_WINDOW_MS);
+        this.ruleChain = ScanRuleChain.fromJson(options.optJSONArray("rules"));
+        this.listener = listener;
+    }
+
+    public IntentFilter getIntentFilter() {
+        IntentFilter filter = new IntentFilter(action);
+        if (category != null && !category.isEmpty()) {
+            filter.addCategory(category);
+        }
+        return filter;
+    }
+
+    public String getReceiverPermission() {
+        return receiverPermission;
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        ScanResult result = handleIntent(intent, SystemClock.elapsedRealtime());
+        if (result != null) {
+            listener.onHardwareScan(result);
+        }
+    }
+
+    /**
+     * Convert a scan Intent to a result; separated from onReceive so fake Intents can be fed in tests
+     * @return the result, or null if the Intent was ignored, rejected or a duplicate
+     */
+    synchronized ScanResult handleIntent(Intent intent, long now) {
+        if (intent == null || !action.equals(intent.getAction())) {
+            return null;
+        }
+
+        String value = intent.getStringExtra(dataExtra);
+        if (value == null || value.isEmpty()) {
+            Log.w(TAG, "Scan intent without " + dataExtra + " extra");
+            return null;
+        }
+        String format = normalizeFormat(intent.getStringExtra(formatExtra));
+
+        if (!ruleChain.accept(value, format)) {
+            return null;
+        }
+
+        // Imagers often fire repeatedly while the trigger is held
+        if (value.equals(lastValue) && now - lastValueTime < duplicateWindowMs) {
+            suppressedCount++;
+            lastValueTime = now;
+            return null;
+        }
+        lastValue = value;
+        lastValueTime = now;
+
+        // Imagers report neither bounds nor a lens; consensus does not apply to a single trigger read
+        ScanResult.Details details = new ScanResult.Details(ScanResult.SOURCE_HARDWARE, ruleChain.getRejectedCount(),
+                                                            null, null, 0, 0, 0, 0);
+        return new ScanResult(value, format, null, System.currentTimeMillis(), null, details);
+    }
+
+    /**
+     * Repeats dropped by duplicate suppression since the receiver was created
+     */
+    public synchronized int getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /**
+     * Map vendor label types (e.g. "LABEL-TYPE-EAN13") to the format names used for camera scans
+     */
+    static String normalizeFormat(String labelType) {
+        if (labelType == null || labelType.isEmpty()) {
+            return "UNKNOWN";
+        }
+        String type = labelType.toUpperCase();
+        if (type.startsWith(LABEL_TYPE_PREFIX)) {
+            type = type.substring(LABEL_TYPE_PREFIX.length());
+        }
+        switch (type) {
+            case "DATAMATRIX":
+                return "DATA_MATRIX";
+            case "QRCODE":
+                return "QR_CODE";
+            case "CODE128":
+            case "GS1-128":
+                return "CODE_128";
+            case "CODE39":
+                return "CODE_39";
+            case "EAN13":
+                return "EAN_13";
+            case "EAN8":
+                return "EAN_8";
+            case "UPCA":
+                return "UPC_A";
+            case "UPCE0":
+            case "UPCE1":
+                return "UPC_E";
+            case "I2OF5":
+                return "ITF";
+            default:
+                return type;
+        }
+    }
+}
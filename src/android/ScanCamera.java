@@ -0,0 +1,83 @@
+package com.mccbarcode;
+
+import android.util.SparseArray;
+import android.view.SurfaceHolder;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.io.IOException;
+
+/**
+ * A camera feeding preview frames to the scanner's barcode detector
+ *
+ * VisionScanCamera wraps the Vision CameraSource for the primary back and front camera;
+ * Camera2ScanCamera opens any lens and reports focus failures for the auto lens mode
+ */
+interface ScanCamera {
+
+    interface Listener {
+        /**
+         * Called on the main thread once frames can flow
+         */
+        void onCameraOpened(ScanCamera camera, long openMs);
+
+        /**
+         * The lens could not focus for the configured time; called on the main thread
+         */
+        void onFocusFailed(ScanCamera camera);
+
+        void onCameraError(ScanCamera camera, Exception error);
+    }
+
+    void start(SurfaceHolder holder) throws IOException;
+
+    /**
+     * Close the camera device; start() may be called again
+     */
+    void stop();
+
+    /**
+     * Stop and free everything this camera owns; the shared detector stays usable
+     */
+    void release();
+
+    /**
+     * @return "WIDTHxHEIGHT" of the running preview, or null if not known yet
+     */
+    String getPreviewSize();
+
+    CameraLensSelector.LensInfo getLens();
+
+    /**
+     * Lets several cameras feed one BarcodeDetector, so a camera can be released
+     * (which releases its detector) without tearing down the warm shared detector
+     */
+    class SharedDetector extends Detector<Barcode> {
+
+        private final Detector<Barcode> delegate;
+
+        SharedDetector(Detector<Barcode> delegate, Detector.Processor<Barcode> processor) {
+            this.delegate = delegate;
+            setProcessor(processor);
+        }
+
+        @Override
+        public SparseArray<Barcode> detect(Frame frame) {
+            return delegate.detect(frame);
+        }
+
+        @Override
+        public boolean isOperational() {
+            return delegate.isOperational();
+        }
+
+        @Override
+        public boolean setFocus(int id) {
+            return delegate.setFocus(id);
+        }
+
+        // release() is inherited: it only drops this wrapper's processor, never the delegate
+    }
+}
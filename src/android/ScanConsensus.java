@@ -0,0 +1,165 @@
+package com.mccbarcode;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-frame consensus voting for detections
+ * A value is only accepted once it has been seen in K of the last N frames,
+ * which filters out the occasional misread of a low-quality 1D code
+ *
+ * Configured with the "consensus" scan option, e.g. {votes: 3, frames: 5}
+ * Without the option every value is accepted on the first frame it appears in
+ *
+ * submit() runs on the detector thread while reset() is called from the main thread
+ * when scanning resumes, so all access to the window is synchronized
+ */
+public class ScanConsensus {
+
+    private static final int MAX_FRAMES = 30;
+
+    private final int votesRequired;
+    private final String[][] frames;
+    private final long[] timestamps;
+    private int next = 0;
+    private int filled = 0;
+
+    private long lastLatencyMs = 0;
+    private int lastVotes = 0;
+    // Votes and latency of each value accepted by the last submit()
+    private final Map<String, long[]> acceptedStats = new HashMap<>();
+
+    ScanConsensus(int votesRequired, int frameCount) {
+        int size = Math.max(1, Math.min(MAX_FRAMES, frameCount));
+        this.votesRequired = Math.max(1, Math.min(size, votesRequired));
+        this.frames = new String[size][];
+        this.timestamps = new long[size];
+    }
+
+    public static ScanConsensus fromJson(JSONObject json) {
+        if (json == null) {
+            return new ScanConsensus(1, 1);
+        }
+        int votes = json.optInt("votes", 2);
+        return new ScanConsensus(votes, json.optInt("frames", votes + 1));
+    }
+
+    public boolean isEnabled() {
+        return votesRequired > 1;
+    }
+
+    /**
+     * Record the values detected in one frame and check for consensus
+     * Frames without a value must be submitted too, otherwise stale votes never expire
+     * @param values keys of the values that passed validation in this frame
+     * @param timestampMs frame time, used to measure the latency consensus added
+     * @return every value that reached consensus in this frame, in detection order; empty if none
+     */
+    public synchronized List<String> submit(List<String> values, long timestampMs) {
+        frames[next] = values.toArray(new String[values.size()]);
+        timestamps[next] = timestampMs;
+        next = (next + 1) % frames.length;
+        if (filled < frames.length) {
+            filled++;
+        }
+
+        List<String> accepted = new ArrayList<>();
+        acceptedStats.clear();
+        for (String value : values) {
+            if (accepted.contains(value)) {
+                continue;
+            }
+            int votes = 0;
+            long firstSeen = timestampMs;
+            for (int i = 0; i < filled; i++) {
+                if (contains(frames[i], value)) {
+                    votes++;
+                    firstSeen = Math.min(firstSeen, timestamps[i]);
+                }
+            }
+            if (votes >= votesRequired) {
+                lastVotes = votes;
+                lastLatencyMs = timestampMs - firstSeen;
+                accepted.add(value);
+                acceptedStats.put(value, new long[] {votes, lastLatencyMs});
+            }
+        }
+        if (!accepted.isEmpty()) {
+            clearVotes(accepted);
+        }
+        return accepted;
+    }
+
+    /**
+     * Drop all votes, e.g. after a value was accepted or scanning was resumed
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = null;
+        }
+        next = 0;
+        filled = 0;
+    }
+
+    /**
+     * Time between the first sighting of the last accepted value and its acceptance
+     */
+    public synchronized long getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+
+    public synchronized int getLastVotes() {
+        return lastVotes;
+    }
+
+    /**
+     * @return votes of a value accepted by the last submit(), 0 if it was not accepted there
+     */
+    public synchronized int getVotes(String value) {
+        long[] stats = acceptedStats.get(value);
+        return stats != null ? (int) stats[0] : 0;
+    }
+
+    /**
+     * @return consensus latency of a value accepted by the last submit()
+     */
+    public synchronized long getLatencyMs(String value) {
+        long[] stats = acceptedStats.get(value);
+        return stats != null ? stats[1] : 0;
+    }
+
+    /**
+     * Accepted values have to earn their votes again; other values keep theirs,
+     * so a second code in view is not set back by the first one being accepted
+     */
+    private void clearVotes(List<String> accepted) {
+        for (int i = 0; i < filled; i++) {
+            if (frames[i] == null) {
+                continue;
+            }
+            List<String> remaining = new ArrayList<>();
+            for (String value : frames[i]) {
+                if (!accepted.contains(value)) {
+                    remaining.add(value);
+                }
+            }
+            frames[i] = remaining.toArray(new String[remaining.size()]);
+        }
+    }
+
+    private static boolean contains(String[] frame, String value) {
+        if (frame == null) {
+            return false;
+        }
+        for (String candidate : frame) {
+            if (candidate.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
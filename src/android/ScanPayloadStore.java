@@ -0,0 +1,36 @@
+package com.mccbarcode;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process hand-off for binary payloads between the scanner activity and the plugin
+ * Only a short token travels in the result Intent, so large PDF417 / DataMatrix payloads
+ * never hit the Binder transaction limit
+ */
+final class ScanPayloadStore {
+
+    private static final Map<String, byte[]> payloads = new ConcurrentHashMap<>();
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private ScanPayloadStore() {
+    }
+
+    static String put(byte[] payload) {
+        String token = "payload-" + nextId.incrementAndGet();
+        payloads.put(token, payload);
+        return token;
+    }
+
+    /**
+     * @return the payload, or null if the token is unknown or was already taken
+     */
+    static byte[] take(String token) {
+        return token != null ? payloads.remove(token) : null;
+    }
+
+    static void clear() {
+        payloads.clear();
+    }
+}
@@ -0,0 +1,235 @@
+package com.mccbarcode;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+/**
+ * Steps the camera pipeline down under thermal pressure or low battery and back up
+ * once conditions clear, so long continuous sessions don't end up throttled
+ *
+ * Signals come from a SignalSource; tests can inject a fake one or call
+ * onThermalStatus / onBatteryChanged directly with their own timestamps
+ */
+public class ScanPowerScheduler {
+
+    private static final String TAG = "ScanPowerScheduler";
+
+    // PowerManager.THERMAL_STATUS_* values, available from API 29
+    static final int THERMAL_STATUS_NONE = 0;
+    static final int THERMAL_STATUS_MODERATE = 2;
+    static final int THERMAL_STATUS_SEVERE = 3;
+
+    private static final int DEFAULT_LOW_BATTERY = 20;
+    private static final int DEFAULT_CRITICAL_BATTERY = 10;
+    private static final long DEFAULT_RESTORE_DELAY_MS = 30000;
+
+    /**
+     * Pipeline settings per level; preview size index refers to the resolution steps of the activity
+     * MINIMAL also accepts values on their first frame: at 10 fps waiting for consensus votes
+     * keeps the camera running for seconds longer per code
+     */
+    public enum Level {
+        NORMAL(30f, Integer.MAX_VALUE, true, true),
+        REDUCED(15f, 1, false, true),
+        MINIMAL(10f, 0, false, false);
+
+        final float fps;
+        final int maxPreviewSizeIndex;
+        final boolean autoSwitch;
+        final boolean consensusVoting;
+
+        Level(float fps, int maxPreviewSizeIndex, boolean autoSwitch, boolean consensusVoting) {
+            this.fps = fps;
+            this.maxPreviewSizeIndex = maxPreviewSizeIndex;
+            this.autoSwitch = autoSwitch;
+            this.consensusVoting = consensusVoting;
+        }
+    }
+
+    public interface Listener {
+        void onPowerLevelChanged(Level from, Level to, String reason);
+    }
+
+    public interface SignalSource {
+        void start(ScanPowerScheduler scheduler);
+        void stop();
+    }
+
+    private final int lowBattery;
+    private final int criticalBattery;
+    private final long restoreDelayMs;
+    private final SignalSource source;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private Level level = Level.NORMAL;
+    private int thermalStatus = THERMAL_STATUS_NONE;
+    private int batteryLevel = 100;
+    private boolean charging = false;
+    private long lastTransitionTime = Long.MIN_VALUE / 2;
+
+    private final Runnable evaluateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evaluate(SystemClock.elapsedRealtime(), "recovered");
+        }
+    };
+
+    /**
+     * @param policy the "powerPolicy" option: {lowBattery, criticalBattery, restoreDelayMs}, may be null
+     */
+    public ScanPowerScheduler(JSONObject policy, SignalSource source, Listener listener) {
+        JSONObject options = policy != null ? policy : new JSONObject();
+        this.lowBattery = options.optInt("lowBattery", DEFAULT_LOW_BATTERY);
+        this.criticalBattery = options.optInt("criticalBattery", DEFAULT_CRITICAL_BATTERY);
+        this.restoreDelayMs = options.optLong("restoreDelayMs", DEFAULT_RESTORE_DELAY_MS);
+        this.source = source;
+        this.listener = listener;
+    }
+
+    public void start() {
+        source.start(this);
+    }
+
+    public void stop() {
+        source.stop();
+        handler.removeCallbacks(evaluateRunnable);
+    }
+
+    public synchronized Level getLevel() {
+        return level;
+    }
+
+    public synchronized int getThermalStatus() {
+        return thermalStatus;
+    }
+
+    public synchronized int getBatteryLevel() {
+        return batteryLevel;
+    }
+
+    public synchronized boolean isCharging() {
+        return charging;
+    }
+
+    public synchronized void onThermalStatus(int status, long now) {
+        thermalStatus = status;
+        evaluate(now, "thermal");
+    }
+
+    public synchronized void onBatteryChanged(int percent, boolean isCharging, long now) {
+        batteryLevel = percent;
+        charging = isCharging;
+        evaluate(now, "battery");
+    }
+
+    /**
+     * Degrade immediately; restore one level at a time, at most once per restoreDelayMs
+     */
+    synchronized void evaluate(long now, String reason) {
+        Level thermalLevel = thermalStatus >= THERMAL_STATUS_SEVERE ? Level.MINIMAL
+                : thermalStatus >= THERMAL_STATUS_MODERATE ? Level.REDUCED : Level.NORMAL;
+        Level batteryTarget = charging ? Level.NORMAL
+                : batteryLevel <= criticalBattery ? Level.MINIMAL
+                : batteryLevel <= lowBattery ? Level.REDUCED : Level.NORMAL;
+        Level target = thermalLevel.ordinal() >= batteryTarget.ordinal() ? thermalLevel : batteryTarget;
+
+        if (target.ordinal() > level.ordinal()) {
+            handler.removeCallbacks(evaluateRunnable);
+            transition(target, thermalLevel == target ? "thermal" : "battery", now);
+        } else if (target.ordinal() < level.ordinal()) {
+            long wait = lastTransitionTime + restoreDelayMs - now;
+            if (wait <= 0) {
+                transition(Level.values()[level.ordinal() - 1], reason, now);
+                wait = restoreDelayMs;
+            }
+            handler.removeCallbacks(evaluateRunnable);
+            if (target.ordinal() < level.ordinal()) {
+                handler.postDelayed(evaluateRunnable, wait);
+            }
+        }
+    }
+
+    private void transition(Level to, String reason, long now) {
+        Level from = level;
+        level = to;
+        lastTransitionTime = now;
+        Log.d(TAG, "Power level " + from + " -> " + to + " (" + reason + ", thermal " + thermalStatus
+                + ", battery " + batteryLevel + "%" + (charging ? " charging" : "") + ")");
+        listener.onPowerLevelChanged(from, to, reason);
+    }
+
+    /**
+     * Reads PowerManager thermal status (API 29+) and the battery broadcast
+     */
+    public static class SystemSignalSource implements SignalSource {
+
+        private final Context context;
+        private PowerManager.OnThermalStatusChangedListener thermalListener;
+        private BroadcastReceiver batteryReceiver;
+
+        public SystemSignalSource(Context context) {
+            this.context = context.getApplicationContext();
+        }
+
+        @Override
+        public void start(final ScanPowerScheduler scheduler) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                if (powerManager != null) {
+                    thermalListener = new PowerManager.OnThermalStatusChangedListener() {
+                        @Override
+                        public void onThermalStatusChanged(int status) {
+                            scheduler.onThermalStatus(status, SystemClock.elapsedRealtime());
+                        }
+                    };
+                    // Delivers the current status right away
+                    powerManager.addThermalStatusListener(thermalListener);
+                }
+            }
+
+            batteryReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                    int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                    if (level < 0 || scale <= 0) {
+                        return;
+                    }
+                    int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+                    boolean isCharging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                            || status == BatteryManager.BATTERY_STATUS_FULL;
+                    scheduler.onBatteryChanged(level * 100 / scale, isCharging, SystemClock.elapsedRealtime());
+                }
+            };
+            // Sticky broadcast, so the current level is delivered immediately
+            context.registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        }
+
+        @Override
+        public void stop() {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && thermalListener != null) {
+                PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+                if (powerManager != null) {
+                    powerManager.removeThermalStatusListener(thermalListener);
+                }
+                thermalListener = null;
+            }
+            if (batteryReceiver != null) {
+                context.unregisterReceiver(batteryReceiver);
+                batteryReceiver = null;
+            }
+        }
+    }
+}
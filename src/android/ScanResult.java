@@ -0,0 +1,104 @@
+package com.mccbarcode;
+
+import android.graphics.Rect;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A single detection delivered while continuous scanning
+ */
+public class ScanResult {
+
+    public static final String SOURCE_CAMERA = "camera";
+    public static final String SOURCE_HARDWARE = "hardware";
+
+    final String text;
+    final String format;
+    final Rect bounds;
+    final long timestamp;
+    // Exact encoded bytes, only set when the returnRawBytes option is enabled
+    final byte[] rawBytes;
+    // Scan context reported with single scans too; null only for bare results
+    final Details details;
+
+    /**
+     * How and by which lens a result was read, the same fields a single scan result carries
+     */
+    static class Details {
+        final String source;
+        final int rejectedReads;
+        // Lens fields are null for hardware scans
+        final String lens;
+        final String lensId;
+        final long cameraOpenMs;
+        final long lensSwitchMs;
+        // 0 when the value was not voted on
+        final int consensusVotes;
+        final long consensusLatencyMs;
+
+        Details(String source, int rejectedReads, String lens, String lensId, long cameraOpenMs,
+                long lensSwitchMs, int consensusVotes, long consensusLatencyMs) {
+            this.source = source;
+            this.rejectedReads = rejectedReads;
+            this.lens = lens;
+            this.lensId = lensId;
+            this.cameraOpenMs = cameraOpenMs;
+            this.lensSwitchMs = lensSwitchMs;
+            this.consensusVotes = consensusVotes;
+            this.consensusLatencyMs = consensusLatencyMs;
+        }
+    }
+
+    ScanResult(String text, String format, Rect bounds, long timestamp, byte[] rawBytes) {
+        this(text, format, bounds, timestamp, rawBytes, null);
+    }
+
+    ScanResult(String text, String format, Rect bounds, long timestamp, byte[] rawBytes, Details details) {
+        this.text = text;
+        this.format = format;
+        this.bounds = bounds;
+        this.timestamp = timestamp;
+        this.rawBytes = rawBytes;
+        this.details = details;
+    }
+
+    String getSource() {
+        return details != null ? details.source : SOURCE_CAMERA;
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("text", text);
+        json.put("format", format);
+        json.put("timestamp", timestamp);
+        if (bounds != null) {
+            JSONObject box = new JSONObject();
+            box.put("left", bounds.left);
+            box.put("top", bounds.top);
+            box.put("right", bounds.right);
+            box.put("bottom", bounds.bottom);
+            json.put("bounds", box);
+        }
+        if (rawBytes != null) {
+            // The bytes themselves travel as a separate binary message part
+            json.put("rawBytesLength", rawBytes.length);
+        }
+        json.put("source", getSource());
+        if (details != null) {
+            json.put("rejectedReads", details.rejectedReads);
+            if (details.lens != null) {
+                json.put("lens", details.lens);
+                json.put("lensId", details.lensId);
+                json.put("cameraOpenMs", details.cameraOpenMs);
+                json.put("lensSwitchMs", details.lensSwitchMs);
+            }
+            if (details.consensusVotes > 0) {
+                json.put("consensusVotes", details.consensusVotes);
+                json.put("consensusLatencyMs", details.consensusLatencyMs);
+            }
+        }
+        json.put("success", true);
+        return json;
+    }
+}
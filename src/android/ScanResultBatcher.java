@@ -0,0 +1,186 @@
+package com.mccbarcode;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects continuous scan results over a short window and encodes them
+ * into one compact binary message instead of one JSON message per result
+ *
+ * Layout (big-endian, decoded by barcodeScanner.decodeResultBatch):
+ *   header  uint16 version, uint16 count, float64 base timestamp (epoch ms)
+ *   record  uint8 format code, uint8 flags, uint16 timestamp offset (ms, saturated)
+ *           [flags & 1] int16 left, top, right, bottom
+ *           [flags & 4] uint8 source (0 camera, 1 hardware), uint32 rejected reads,
+ *                       uint16 consensus votes (0 if not voted), uint32 consensus latency ms,
+ *                       uint32 camera open ms, uint32 lens switch ms (ms values saturated),
+ *                       uint16 lens length, UTF-8 lens, uint16 lens id length, UTF-8 lens id
+ *                       (length 0 when the result has no lens)
+ *           uint32 text length, UTF-8 text bytes
+ *           [flags & 2] uint32 raw length, raw payload bytes
+ */
+public class ScanResultBatcher {
+
+    // Version 2 added the details block
+    static final int VERSION = 2;
+    static final int FLAG_BOUNDS = 1;
+    static final int FLAG_RAW_BYTES = 2;
+    static final int FLAG_DETAILS = 4;
+
+    // Index is the format code; keep in sync with RESULT_FORMATS in www/BarcodeScanner.js
+    static final String[] FORMATS = {
+        "UNKNOWN", "DATA_MATRIX", "QR_CODE", "CODE_128", "CODE_39", "EAN_13", "EAN_8",
+        "UPC_A", "UPC_E", "PDF417", "AZTEC", "CODABAR", "ITF"
+    };
+
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 4;
+    private static final int BOUNDS_SIZE = 8;
+    // Fixed part of the details block, without the two lens strings
+    private static final int DETAILS_SIZE = 1 + 4 + 2 + 4 + 4 + 4 + 2 + 2;
+    private static final int LENGTH_SIZE = 4;
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives each encoded batch
+     */
+    public interface Sink {
+        void onBatch(byte[] batch);
+    }
+
+    private final long windowMs;
+    private final Sink sink;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<ScanResult> pending = new ArrayList<>();
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public ScanResultBatcher(long windowMs, Sink sink) {
+        this.windowMs = Math.max(0, windowMs);
+        this.sink = sink;
+    }
+
+    public void add(ScanResult result) {
+        boolean full;
+        synchronized (pending) {
+            pending.add(result);
+            full = pending.size() >= MAX_BATCH_SIZE;
+            if (pending.size() == 1 && !full) {
+                handler.postDelayed(flushRunnable, windowMs);
+            }
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Send whatever is pending now, e.g. when scanning stops
+     */
+    public void flush() {
+        List<ScanResult> batch;
+        synchronized (pending) {
+            handler.removeCallbacks(flushRunnable);
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        sink.onBatch(encode(batch));
+    }
+
+    static byte[] encode(List<ScanResult> results) {
+        int size = HEADER_SIZE;
+        List<byte[]> texts = new ArrayList<>(results.size());
+        List<byte[]> lenses = new ArrayList<>(results.size());
+        List<byte[]> lensIds = new ArrayList<>(results.size());
+        for (ScanResult result : results) {
+            byte[] text = result.text != null ? result.text.getBytes(UTF_8) : new byte[0];
+            texts.add(text);
+            size += RECORD_HEADER_SIZE + LENGTH_SIZE + text.length;
+            if (result.bounds != null) {
+                size += BOUNDS_SIZE;
+            }
+            byte[] lens = utf8(result.details != null ? result.details.lens : null);
+            byte[] lensId = utf8(result.details != null ? result.details.lensId : null);
+            lenses.add(lens);
+            lensIds.add(lensId);
+            if (result.details != null) {
+                size += DETAILS_SIZE + lens.length + lensId.length;
+            }
+            if (result.rawBytes != null) {
+                size += LENGTH_SIZE + result.rawBytes.length;
+            }
+        }
+
+        long base = results.isEmpty() ? 0 : results.get(0).timestamp;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) results.size());
+        buffer.putDouble(base);
+
+        for (int i = 0; i < results.size(); i++) {
+            ScanResult result = results.get(i);
+            buffer.put((byte) getFormatCode(result.format));
+            buffer.put((byte) ((result.bounds != null ? FLAG_BOUNDS : 0) | (result.rawBytes != null ? FLAG_RAW_BYTES : 0)
+                               | (result.details != null ? FLAG_DETAILS : 0)));
+            buffer.putShort((short) Math.min(0xFFFF, Math.max(0, result.timestamp - base)));
+            if (result.bounds != null) {
+                buffer.putShort((short) result.bounds.left);
+                buffer.putShort((short) result.bounds.top);
+                buffer.putShort((short) result.bounds.right);
+                buffer.putShort((short) result.bounds.bottom);
+            }
+            if (result.details != null) {
+                ScanResult.Details details = result.details;
+                buffer.put((byte) (ScanResult.SOURCE_HARDWARE.equals(details.source) ? 1 : 0));
+                buffer.putInt(details.rejectedReads);
+                buffer.putShort((short) Math.min(0xFFFF, details.consensusVotes));
+                buffer.putInt(saturate(details.consensusLatencyMs));
+                buffer.putInt(saturate(details.cameraOpenMs));
+                buffer.putInt(saturate(details.lensSwitchMs));
+                buffer.putShort((short) lenses.get(i).length);
+                buffer.put(lenses.get(i));
+                buffer.putShort((short) lensIds.get(i).length);
+                buffer.put(lensIds.get(i));
+            }
+            byte[] text = texts.get(i);
+            buffer.putInt(text.length);
+            buffer.put(text);
+            if (result.rawBytes != null) {
+                buffer.putInt(result.rawBytes.length);
+                buffer.put(result.rawBytes);
+            }
+        }
+        return buffer.array();
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(UTF_8) : new byte[0];
+    }
+
+    private static int saturate(long ms) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, ms));
+    }
+
+    static int getFormatCode(String format) {
+        for (int i = 1; i < FORMATS.length; i++) {
+            if (FORMATS[i].equals(format)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,294 @@
+package com.mccbarcode;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Native post-processing rules applied to every detection before it is emitted
+ * Runs on the detector thread so a rejected read simply waits for the next frame
+ * Rules are immutable once built, so one chain can be shared by decode() workers
+ *
+ * Rules are passed in the "rules" scan option as an ordered array, e.g.
+ * [{type: "checksum", algorithm: "mod10", formats: ["EAN_13", "UPC_A"]},
+ *  {type: "length", min: 8, max: 20},
+ *  {type: "regex", pattern: "^[0-9A-Z]+$"},
+ *  {type: "prefix", values: ["01", "02"]}]
+ */
+public class ScanRuleChain {
+
+    private static final String CODE39_CHARSET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ-. $/+%";
+
+    private final List<Rule> rules;
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+
+    private ScanRuleChain(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * A chain without rules; accepts every non-null value
+     */
+    public static ScanRuleChain empty() {
+        return new ScanRuleChain(new ArrayList<Rule>());
+    }
+
+    /**
+     * Build a chain from the "rules" option; a null or empty array accepts everything
+     * @throws JSONException if a rule is malformed or its pattern does not compile
+     */
+    public static ScanRuleChain fromJson(JSONArray json) throws JSONException {
+        List<Rule> rules = new ArrayList<>();
+        if (json != null) {
+            for (int i = 0; i < json.length(); i++) {
+                rules.add(parseRule(json.getJSONObject(i)));
+            }
+        }
+        return new ScanRuleChain(rules);
+    }
+
+    private static Rule parseRule(JSONObject json) throws JSONException {
+        String type = json.getString("type");
+        Set<String> formats = parseFormats(json.optJSONArray("formats"));
+
+        switch (type) {
+            case "checksum":
+                String algorithm = json.getString("algorithm");
+                if (!algorithm.equals("mod10") && !algorithm.equals("mod43")) {
+                    throw new JSONException("Unknown checksum algorithm: " + algorithm);
+                }
+                return new ChecksumRule(formats, algorithm);
+            case "length":
+                return new LengthRule(formats, json.optInt("min", 0), json.optInt("max", Integer.MAX_VALUE));
+            case "regex":
+                try {
+                    return new RegexRule(formats, Pattern.compile(json.getString("pattern")));
+                } catch (PatternSyntaxException e) {
+                    throw new JSONException("Invalid regex pattern: " + e.getDescription());
+                }
+            case "prefix":
+                JSONArray values = json.getJSONArray("values");
+                List<String> prefixes = new ArrayList<>();
+                for (int i = 0; i < values.length(); i++) {
+                    prefixes.add(values.getString(i));
+                }
+                return new PrefixRule(formats, prefixes);
+            default:
+                throw new JSONException("Unknown rule type: " + type);
+        }
+    }
+
+    private static Set<String> parseFormats(JSONArray json) throws JSONException {
+        if (json == null) {
+            return null;
+        }
+        Set<String> formats = new HashSet<>();
+        for (int i = 0; i < json.length(); i++) {
+            formats.add(json.getString(i));
+        }
+        return formats;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * @param value decoded value
+     * @param format format name as returned to JS, e.g. "EAN_13"
+     * @return true if every rule that applies to the format accepts the value
+     */
+    public boolean accept(String value, String format) {
+        if (value == null) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        for (Rule rule : rules) {
+            if (rule.appliesTo(format) && !rule.accept(value, format)) {
+                rejectedCount.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * GS1 mod-10 check digit used by EAN-13, EAN-8, UPC-A and ITF-14; the last digit is the check digit
+     * UPC-E values must go through isValidUpcE, their check digit belongs to the expanded UPC-A form
+     */
+    static boolean isValidMod10(String value) {
+        if (value.length() < 2) {
+            return false;
+        }
+        int sum = 0;
+        int weight = 3;
+        for (int i = value.length() - 2; i >= 0; i--) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            sum += (c - '0') * weight;
+            weight = weight == 3 ? 1 : 3;
+        }
+        char check = value.charAt(value.length() - 1);
+        return check >= '0' && check <= '9' && (10 - sum % 10) % 10 == check - '0';
+    }
+
+    /**
+     * UPC-E check digit: expand the 8 digit value (number system, 6 data digits, check digit)
+     * to UPC-A and verify that with mod-10
+     */
+    static boolean isValidUpcE(String value) {
+        String upcA = expandUpcE(value);
+        return upcA != null && isValidMod10(upcA);
+    }
+
+    /**
+     * @return the 12 digit UPC-A form of an 8 digit UPC-E value, or null if it is not one
+     */
+    static String expandUpcE(String value) {
+        if (value.length() != 8 || (value.charAt(0) != '0' && value.charAt(0) != '1')) {
+            return null;
+        }
+        for (int i = 1; i < 8; i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return null;
+            }
+        }
+        String data = value.substring(1, 7);
+        char last = data.charAt(5);
+        String manufacturer;
+        String product;
+        switch (last) {
+            case '0':
+            case '1':
+            case '2':
+                manufacturer = data.substring(0, 2) + last + "00";
+                product = "00" + data.substring(2, 5);
+                break;
+            case '3':
+                manufacturer = data.substring(0, 3) + "00";
+                product = "000" + data.substring(3, 5);
+                break;
+            case '4':
+                manufacturer = data.substring(0, 4) + "0";
+                product = "0000" + data.charAt(4);
+                break;
+            default:
+                manufacturer = data.substring(0, 5);
+                product = "0000" + last;
+                break;
+        }
+        return value.charAt(0) + manufacturer + product + value.charAt(7);
+    }
+
+    /**
+     * Code 39 mod-43 check character; the last character is the check character
+     */
+    static boolean isValidMod43(String value) {
+        if (value.length() < 2) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < value.length() - 1; i++) {
+            int index = CODE39_CHARSET.indexOf(value.charAt(i));
+            if (index < 0) {
+                return false;
+            }
+            sum += index;
+        }
+        return CODE39_CHARSET.charAt(sum % 43) == value.charAt(value.length() - 1);
+    }
+
+    private abstract static class Rule {
+        private final Set<String> formats;
+
+        Rule(Set<String> formats) {
+            this.formats = formats;
+        }
+
+        boolean appliesTo(String format) {
+            return formats == null || formats.contains(format);
+        }
+
+        abstract boolean accept(String value, String format);
+    }
+
+    private static class ChecksumRule extends Rule {
+        private final boolean mod43;
+
+        ChecksumRule(Set<String> formats, String algorithm) {
+            super(formats);
+            this.mod43 = algorithm.equals("mod43");
+        }
+
+        @Override
+        boolean accept(String value, String format) {
+            if (mod43) {
+                return isValidMod43(value);
+            }
+            return "UPC_E".equals(format) ? isValidUpcE(value) : isValidMod10(value);
+        }
+    }
+
+    private static class LengthRule extends Rule {
+        private final int min;
+        private final int max;
+
+        LengthRule(Set<String> formats, int min, int max) {
+            super(formats);
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        boolean accept(String value, String format) {
+            return value.length() >= min && value.length() <= max;
+        }
+    }
+
+    private static class RegexRule extends Rule {
+        private final Pattern pattern;
+
+        RegexRule(Set<String> formats, Pattern pattern) {
+            super(formats);
+            this.pattern = pattern;
+        }
+
+        @Override
+        boolean accept(String value, String format) {
+            return pattern.matcher(value).find();
+        }
+    }
+
+    private static class PrefixRule extends Rule {
+        private final List<String> prefixes;
+
+        PrefixRule(Set<String> formats, List<String> prefixes) {
+            super(formats);
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        boolean accept(String value, String format) {
+            for (String prefix : prefixes) {
+                if (value.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
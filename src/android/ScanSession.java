@@ -0,0 +1,270 @@
+package com.mccbarcode;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lifecycle of one scanner activity: overall timeout, idle suspend and cancellation
+ *
+ * The session only keeps time and state; the owner stops and restarts the camera from the
+ * Listener callbacks, which run on the main thread for timer driven transitions.
+ * Native resources are tracked in static counters so tests can assert that nothing
+ * is still held once every session has ended
+ */
+public class ScanSession {
+
+    private static final String TAG = "ScanSession";
+
+    public static final String END_RESULT = "result";
+    public static final String END_TIMEOUT = "timeout";
+    public static final String END_CANCELLED = "cancelled";
+
+    public enum State {
+        NEW, ACTIVE, SUSPENDED, ENDED
+    }
+
+    public enum Resource {
+        SESSION("sessions"),
+        // Open camera devices
+        CAMERA("cameras"),
+        // ScanCamera instances, open or not; each holds a detector wrapper until released
+        CAMERA_SOURCE("cameraSources"),
+        DETECTOR("detectors"),
+        TONE_GENERATOR("toneGenerators");
+
+        final String key;
+
+        Resource(String key) {
+            this.key = key;
+        }
+    }
+
+    public interface Listener {
+        void onSuspend();
+        void onResume();
+        void onEnd(String reason);
+    }
+
+    private static final AtomicInteger[] acquired = new AtomicInteger[Resource.values().length];
+    private static final AtomicInteger[] released = new AtomicInteger[Resource.values().length];
+
+    static {
+        for (int i = 0; i < acquired.length; i++) {
+            acquired[i] = new AtomicInteger();
+            released[i] = new AtomicInteger();
+        }
+    }
+
+    private final long timeoutMs;
+    private final long idleTimeoutMs;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private State state = State.NEW;
+    private String endReason;
+    private long startTime;
+    private long timeoutDeadline;
+    // Timeout left when the clock was paused, -1 while it runs
+    private long pausedTimeoutMs = -1;
+    private int suspends = 0;
+
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            end(END_TIMEOUT);
+        }
+    };
+
+    private final Runnable idleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            suspend();
+        }
+    };
+
+    /**
+     * @param timeoutMs end the session after this long without a result, 0 to disable
+     * @param idleTimeoutMs suspend the camera after this long without a result, 0 to disable
+     */
+    public ScanSession(long timeoutMs, long idleTimeoutMs, Listener listener) {
+        this.timeoutMs = Math.max(0, timeoutMs);
+        this.idleTimeoutMs = Math.max(0, idleTimeoutMs);
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (state != State.NEW) {
+            return;
+        }
+        state = State.ACTIVE;
+        startTime = SystemClock.elapsedRealtime();
+        acquired(Resource.SESSION);
+        scheduleTimers();
+    }
+
+    /**
+     * A result was delivered; in continuous mode the timeout and idle timer start over
+     */
+    public synchronized void onResult() {
+        if (state == State.ACTIVE) {
+            scheduleTimers();
+        }
+    }
+
+    /**
+     * Stop the camera but keep the detector, so resume() does not pay for detector start-up
+     */
+    public void suspend() {
+        synchronized (this) {
+            if (state != State.ACTIVE) {
+                return;
+            }
+            state = State.SUSPENDED;
+            suspends++;
+            handler.removeCallbacks(idleRunnable);
+        }
+        Log.d(TAG, "Session suspended after " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+        listener.onSuspend();
+    }
+
+    public void resume() {
+        synchronized (this) {
+            if (state != State.SUSPENDED) {
+                return;
+            }
+            state = State.ACTIVE;
+            scheduleTimers();
+        }
+        listener.onResume();
+    }
+
+    /**
+     * Stop the timeout clock while the owner has paused scanning; the idle timer keeps running
+     * so a paused scanner still closes its camera
+     */
+    public synchronized void pauseTimeout() {
+        if (state == State.ENDED || pausedTimeoutMs >= 0) {
+            return;
+        }
+        handler.removeCallbacks(timeoutRunnable);
+        pausedTimeoutMs = state == State.NEW ? timeoutMs
+                : Math.max(0, timeoutDeadline - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Continue the timeout clock with the time that was left when it was paused
+     */
+    public synchronized void resumeTimeout() {
+        if (pausedTimeoutMs < 0) {
+            return;
+        }
+        long remaining = pausedTimeoutMs;
+        pausedTimeoutMs = -1;
+        if ((state == State.ACTIVE || state == State.SUSPENDED) && timeoutMs > 0) {
+            timeoutDeadline = SystemClock.elapsedRealtime() + remaining;
+            handler.postDelayed(timeoutRunnable, remaining);
+        }
+    }
+
+    public void cancel() {
+        end(END_CANCELLED);
+    }
+
+    /**
+     * Safe to call more than once; only the first reason is reported
+     */
+    public void end(String reason) {
+        synchronized (this) {
+            if (state == State.ENDED) {
+                return;
+            }
+            boolean started = state != State.NEW;
+            state = State.ENDED;
+            endReason = reason;
+            handler.removeCallbacks(timeoutRunnable);
+            handler.removeCallbacks(idleRunnable);
+            if (!started) {
+                return;
+            }
+            released(Resource.SESSION);
+        }
+        Log.d(TAG, "Session ended (" + reason + ") after " + (SystemClock.elapsedRealtime() - startTime) + "ms");
+        listener.onEnd(reason);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized boolean isActive() {
+        return state == State.ACTIVE;
+    }
+
+    public synchronized String getEndReason() {
+        return endReason;
+    }
+
+    public synchronized int getSuspendCount() {
+        return suspends;
+    }
+
+    private void scheduleTimers() {
+        handler.removeCallbacks(timeoutRunnable);
+        handler.removeCallbacks(idleRunnable);
+        if (pausedTimeoutMs >= 0) {
+            // Restarts with the full timeout once the clock is resumed
+            pausedTimeoutMs = timeoutMs;
+        } else if (timeoutMs > 0) {
+            timeoutDeadline = SystemClock.elapsedRealtime() + timeoutMs;
+            handler.postDelayed(timeoutRunnable, timeoutMs);
+        }
+        if (idleTimeoutMs > 0) {
+            handler.postDelayed(idleRunnable, idleTimeoutMs);
+        }
+    }
+
+    static void acquired(Resource resource) {
+        acquired[resource.ordinal()].incrementAndGet();
+    }
+
+    static void released(Resource resource) {
+        released[resource.ordinal()].incrementAndGet();
+    }
+
+    /**
+     * @return how many of this resource are currently held
+     */
+    public static int getLiveCount(Resource resource) {
+        return acquired[resource.ordinal()].get() - released[resource.ordinal()].get();
+    }
+
+    /**
+     * Acquired / released / live count per resource; "leaked" counts resources
+     * still held while no session is running
+     */
+    public static JSONObject getStats() throws JSONException {
+        JSONObject stats = new JSONObject();
+        int leaked = 0;
+        boolean sessionRunning = getLiveCount(Resource.SESSION) > 0;
+        for (Resource resource : Resource.values()) {
+            int live = getLiveCount(resource);
+            JSONObject counts = new JSONObject();
+            counts.put("acquired", acquired[resource.ordinal()].get());
+            counts.put("released", released[resource.ordinal()].get());
+            counts.put("live", live);
+            stats.put(resource.key, counts);
+            if (!sessionRunning && resource != Resource.SESSION) {
+                leaked += live;
+            }
+        }
+        stats.put("leaked", leaked);
+        return stats;
+    }
+}
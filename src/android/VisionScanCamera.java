@@ -0,0 +1,70 @@
+package com.mccbarcode;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.SurfaceHolder;
+
+import com.google.android.gms.common.images.Size;
+import com.google.android.gms.vision.CameraSource;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.io.IOException;
+
+/**
+ * ScanCamera on the Vision CameraSource; opens the first camera of the lens' facing
+ * CameraSource gives no focus state, so this camera never reports focus failures
+ */
+class VisionScanCamera implements ScanCamera {
+
+    private final CameraLensSelector.LensInfo lens;
+    private final Listener listener;
+    private final ScanCamera.SharedDetector detector;
+    private final CameraSource cameraSource;
+
+    VisionScanCamera(Context context, CameraLensSelector.LensInfo lens, int width, int height, float fps,
+                     Detector<Barcode> sharedDetector, Detector.Processor<Barcode> processor, Listener listener) {
+        this.lens = lens;
+        this.listener = listener;
+        this.detector = new ScanCamera.SharedDetector(sharedDetector, processor);
+        this.cameraSource = new CameraSource.Builder(context, detector)
+                .setFacing(lens.front ? CameraSource.CAMERA_FACING_FRONT : CameraSource.CAMERA_FACING_BACK)
+                .setAutoFocusEnabled(true)
+                .setRequestedPreviewSize(width, height)
+                .setRequestedFps(fps)
+                .build();
+    }
+
+    @Override
+    public void start(SurfaceHolder holder) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            cameraSource.start(holder);
+        } catch (SecurityException e) {
+            throw new IOException("Camera permission missing", e);
+        }
+        listener.onCameraOpened(this, SystemClock.elapsedRealtime() - start);
+    }
+
+    @Override
+    public void stop() {
+        cameraSource.stop();
+    }
+
+    @Override
+    public void release() {
+        // Releases the wrapper detector only
+        cameraSource.release();
+    }
+
+    @Override
+    public String getPreviewSize() {
+        Size size = cameraSource.getPreviewSize();
+        return size != null ? size.getWidth() + "x" + size.getHeight() : null;
+    }
+
+    @Override
+    public CameraLensSelector.LensInfo getLens() {
+        return lens;
+    }
+}
@@ -128,6 +128,48 @@ BarcodeScannerProxy.checkPermissions = function(successCallback, errorCallback)
     }
 };
 
+BarcodeScannerProxy.getCameras = function(successCallback, errorCallback) {
+    console.log('BarcodeScanner: Browser platform - getCameras called');
+    if (successCallback) {
+        successCallback([]);
+    }
+};
+
+BarcodeScannerProxy.startHardwareScanner = function(options, onScanned, errorCallback) {
+    console.log('BarcodeScanner: Browser platform - startHardwareScanner called');
+    if (errorCallback) {
+        errorCallback('Hardware scanners not supported in browser platform');
+    }
+};
+
+BarcodeScannerProxy.stopHardwareScanner = function(successCallback, errorCallback) {
+    console.log('BarcodeScanner: Browser platform - stopHardwareScanner called');
+    if (successCallback) {
+        successCallback('Browser platform - hardware scanner stopped');
+    }
+};
+
+BarcodeScannerProxy.getDecodeStats = function(successCallback, errorCallback) {
+    console.log('BarcodeScanner: Browser platform - getDecodeStats called');
+    if (successCallback) {
+        successCallback({});
+    }
+};
+
+BarcodeScannerProxy.getSessionStats = function(successCallback, errorCallback) {
+    console.log('BarcodeScanner: Browser platform - getSessionStats called');
+    if (successCallback) {
+        successCallback({state: 'NONE', leaked: 0});
+    }
+};
+
+BarcodeScannerProxy.watchPowerEvents = function(onEvent, errorCallback) {
+    console.log('BarcodeScanner: Browser platform - watchPowerEvents called');
+    if (errorCallback) {
+        errorCallback('Power events not supported in browser platform');
+    }
+};
+
 BarcodeScannerProxy.destroy = function(successCallback, errorCallback) {
     console.log('BarcodeScanner: Browser platform - destroy called');
     if (successCallback) {
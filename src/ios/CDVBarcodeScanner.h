@@ -37,6 +37,12 @@
 - (void)hasCamera:(CDVInvokedUrlCommand*)command;
 - (void)requestPermissions:(CDVInvokedUrlCommand*)command;
 - (void)checkPermissions:(CDVInvokedUrlCommand*)command;
+- (void)getCameras:(CDVInvokedUrlCommand*)command;
+- (void)startHardwareScanner:(CDVInvokedUrlCommand*)command;
+- (void)stopHardwareScanner:(CDVInvokedUrlCommand*)command;
+- (void)watchPowerEvents:(CDVInvokedUrlCommand*)command;
+- (void)getDecodeStats:(CDVInvokedUrlCommand*)command;
+- (void)getSessionStats:(CDVInvokedUrlCommand*)command;
 - (void)destroy:(CDVInvokedUrlCommand*)command;
 
 @end 
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.mccbarcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Rect;
+
+import com.google.android.gms.vision.barcode.Barcode;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class BarcodeImageDecoderTest {
+
+    @Test
+    public void smallImageIsOneTile() {
+        List<Rect> tiles = BarcodeImageDecoder.computeTiles(300, 200, 512, 64);
+        assertEquals(Arrays.asList(new Rect(0, 0, 300, 200)), tiles);
+    }
+
+    @Test
+    public void edgeTilesAreShiftedInwardsToKeepFullSize() {
+        List<Rect> tiles = BarcodeImageDecoder.computeTiles(1000, 600, 512, 64);
+        assertEquals(Arrays.asList(
+                new Rect(0, 0, 512, 512), new Rect(448, 0, 960, 512), new Rect(488, 0, 1000, 512),
+                new Rect(0, 88, 512, 600), new Rect(448, 88, 960, 600), new Rect(488, 88, 1000, 600)), tiles);
+    }
+
+    @Test
+    public void tilesCoverTheWholeImage() {
+        int width = 4000;
+        int height = 3000;
+        List<Rect> tiles = BarcodeImageDecoder.computeTiles(width, height, 1024, 128);
+        for (int y = 0; y < height; y += 37) {
+            for (int x = 0; x < width; x += 37) {
+                boolean covered = false;
+                for (Rect tile : tiles) {
+                    covered |= tile.contains(x, y);
+                }
+                assertTrue("pixel " + x + "," + y, covered);
+            }
+        }
+    }
+
+    @Test
+    public void mergesSameCodeFromOverlappingTiles() {
+        BarcodeImageDecoder.TileResult left = tile(0, barcode("ABC", Barcode.CODE_128, new Rect(400, 100, 500, 140), 0));
+        BarcodeImageDecoder.TileResult right = tile(1, barcode("ABC", Barcode.CODE_128, new Rect(450, 100, 560, 140), 1));
+
+        List<BarcodeImageDecoder.DetectedBarcode> merged = new ArrayList<>();
+        assertEquals(1, BarcodeImageDecoder.mergeDuplicates(Arrays.asList(left, right), merged));
+        assertEquals(1, merged.size());
+        assertEquals(new Rect(400, 100, 560, 140), merged.get(0).bounds);
+    }
+
+    @Test
+    public void keepsSeparateLabelsWithTheSameValue() {
+        BarcodeImageDecoder.TileResult left = tile(0, barcode("ABC", Barcode.CODE_128, new Rect(0, 0, 100, 40), 0));
+        BarcodeImageDecoder.TileResult right = tile(1, barcode("ABC", Barcode.CODE_128, new Rect(600, 0, 700, 40), 1));
+
+        List<BarcodeImageDecoder.DetectedBarcode> merged = new ArrayList<>();
+        assertEquals(0, BarcodeImageDecoder.mergeDuplicates(Arrays.asList(left, right), merged));
+        assertEquals(2, merged.size());
+    }
+
+    @Test
+    public void keepsOverlappingCodesWithDifferentValueOrFormat() {
+        BarcodeImageDecoder.TileResult tile = tile(0,
+                barcode("ABC", Barcode.CODE_128, new Rect(0, 0, 100, 40), 0),
+                barcode("ABD", Barcode.CODE_128, new Rect(10, 0, 110, 40), 0),
+                barcode("ABC", Barcode.CODE_39, new Rect(20, 0, 120, 40), 0));
+
+        List<BarcodeImageDecoder.DetectedBarcode> merged = new ArrayList<>();
+        assertEquals(0, BarcodeImageDecoder.mergeDuplicates(Arrays.asList(tile), merged));
+        assertEquals(3, merged.size());
+    }
+
+    private static BarcodeImageDecoder.TileResult tile(int index, BarcodeImageDecoder.DetectedBarcode... barcodes) {
+        BarcodeImageDecoder.TileResult tile = new BarcodeImageDecoder.TileResult(index, new Rect(), 1);
+        tile.barcodes.addAll(Arrays.asList(barcodes));
+        return tile;
+    }
+
+    private static BarcodeImageDecoder.DetectedBarcode barcode(String value, int format, Rect bounds, int tileIndex) {
+        return new BarcodeImageDecoder.DetectedBarcode(value, value, format, bounds, tileIndex);
+    }
+}
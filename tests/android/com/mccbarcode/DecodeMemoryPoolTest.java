@@ -0,0 +1,260 @@
+package com.mccbarcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(RobolectricTestRunner.class)
+public class DecodeMemoryPoolTest {
+
+    private static final int SIDE = 64;
+    // 64x64 ARGB bitmap plus its NV21 buffer
+    private static final int BUFFER = SIDE * SIDE * 3 / 2;
+    private static final long FRAME = SIDE * SIDE * 4 + BUFFER;
+
+    private static long stat(DecodeMemoryPool pool, String name) throws Exception {
+        return pool.getStats().getLong(name);
+    }
+
+    @Test
+    public void admissionReservesImageAndHeadroom() throws Exception {
+        DecodeMemoryPool pool = new DecodeMemoryPool(FRAME * 4);
+        DecodeMemoryPool.Admission admission = pool.admit(1000, FRAME);
+        assertEquals(1000 + FRAME, stat(pool, "inUseBytes"));
+
+        pool.trim(admission, 800, FRAME / 2);
+        assertEquals(800 + FRAME / 2, stat(pool, "inUseBytes"));
+
+        pool.release(admission);
+        pool.release(admission);
+        assertEquals(0, stat(pool, "inUseBytes"));
+    }
+
+    @Test
+    public void firstFrameUsesHeadroom() throws Exception {
+        DecodeMemoryPool pool = new DecodeMemoryPool(FRAME * 4);
+        DecodeMemoryPool.Admission admission = pool.admit(1000, FRAME);
+
+        DecodeMemoryPool.FrameMemory first = pool.acquireFrame(SIDE, SIDE, BUFFER, admission);
+        assertEquals(1000 + FRAME, stat(pool, "inUseBytes"));
+        DecodeMemoryPool.FrameMemory second = pool.acquireFrame(SIDE, SIDE, BUFFER, admission);
+        assertEquals(1000 + FRAME * 2, stat(pool, "inUseBytes"));
+
+        pool.releaseFrame(second, second.bitmap);
+        pool.releaseFrame(first, first.bitmap);
+        pool.release(admission);
+        assertEquals(0, stat(pool, "inUseBytes"));
+    }
+
+    @Test
+    public void releasedFramesArePooledAndReused() throws Exception {
+        DecodeMemoryPool pool = new DecodeMemoryPool(FRAME * 4);
+        DecodeMemoryPool.Admission admission = pool.admit(0, FRAME);
+
+        DecodeMemoryPool.FrameMemory first = pool.acquireFrame(SIDE, SIDE, BUFFER, admission);
+        pool.releaseBitmap(first, first.bitmap);
+        pool.releaseBuffer(first);
+        assertEquals(FRAME, stat(pool, "pooledBytes"));
+
+        DecodeMemoryPool.FrameMemory second = pool.acquireFrame(SIDE, SIDE, BUFFER, admission);
+        assertSame(first.bitmap, second.bitmap);
+        assertSame(first.buffer, second.buffer);
+        assertEquals(1, stat(pool, "bitmapReuses"));
+        assertEquals(1, stat(pool, "bufferReuses"));
+        assertEquals(0, stat(pool, "pooledBytes"));
+        pool.releaseFrame(second, second.bitmap);
+        pool.release(admission);
+    }
+
+    @Test
+    public void pooledMemoryIsEvictedToMakeRoom() throws Exception {
+        DecodeMemoryPool pool = new DecodeMemoryPool(FRAME * 2);
+        DecodeMemoryPool.Admission admission = pool.admit(0, FRAME);
+        DecodeMemoryPool.FrameMemory frame = pool.acquireFrame(SIDE, SIDE, BUFFER, admission);
+        pool.releaseFrame(frame, frame.bitmap);
+        pool.release(admission);
+        assertEquals(FRAME, stat(pool, "pooledBytes"));
+
+        // Needs the whole budget, so the pooled frame has to go
+        DecodeMemoryPool.Admission large = pool.admit(FRAME, FRAME);
+        assertEquals(0, stat(pool, "pooledBytes"));
+        assertTrue(frame.bitmap.isRecycled());
+        assertEquals(FRAME * 2, stat(pool, "peakBytes"));
+        pool.release(large);
+    }
+
+    @Test
+    public void oversizedAdmissionRunsAlone() throws Exception {
+        DecodeMemoryPool pool = new DecodeMemoryPool(FRAME);
+        DecodeMemoryPool.Admission admission = pool.admit(FRAME * 3, FRAME);
+        DecodeMemoryPool.FrameMemory frame = pool.acquireFrame(SIDE, SIDE, BUFFER, admission);
+        pool.releaseFrame(frame, frame.bitmap);
+        pool.release(admission);
+        assertEquals(0, stat(pool, "inUseBytes"));
+    }
+
+    @Test
+    public void admissionWaitsForRelease() throws Exception {
+        final DecodeMemoryPool pool = new DecodeMemoryPool(FRAME * 2);
+        DecodeMemoryPool.Admission first = pool.admit(FRAME, FRAME);
+
+        final CountDownLatch admitted = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pool.release(pool.admit(FRAME, FRAME));
+                    admitted.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiter.start();
+        assertFalse(admitted.await(100, TimeUnit.MILLISECONDS));
+
+        pool.release(first);
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        waiter.join();
+        assertEquals(1, stat(pool, "waits"));
+    }
+
+    @Test
+    public void admissionTimesOut() throws Exception {
+        DecodeMemoryPool pool = new DecodeMemoryPool(FRAME * 2, 50);
+        pool.admit(FRAME, FRAME);
+        try {
+            pool.admit(FRAME, FRAME);
+            fail("expected the budget to stay exhausted");
+        } catch (IllegalStateException expected) {
+            assertEquals(FRAME * 2, stat(pool, "inUseBytes"));
+        }
+    }
+
+    @Test
+    public void frameBeyondHeadroomWaitsForBudget() throws Exception {
+        final DecodeMemoryPool pool = new DecodeMemoryPool(FRAME * 3);
+        final DecodeMemoryPool.Admission admission = pool.admit(0, FRAME);
+        DecodeMemoryPool.Admission other = pool.admit(0, FRAME * 2);
+        DecodeMemoryPool.FrameMemory first = pool.acquireFrame(SIDE, SIDE, BUFFER, admission);
+
+        final List<DecodeMemoryPool.FrameMemory> acquired = new ArrayList<>();
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DecodeMemoryPool.FrameMemory frame = pool.acquireFrame(SIDE, SIDE, BUFFER, admission);
+                    synchronized (acquired) {
+                        acquired.add(frame);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        worker.start();
+        worker.join(100);
+        assertTrue(worker.isAlive());
+
+        // The decode's own first frame finishing hands the headroom to the waiting worker
+        pool.releaseFrame(first, first.bitmap);
+        worker.join(5000);
+        assertFalse(worker.isAlive());
+        assertEquals(1, acquired.size());
+        assertNotSame(first, acquired.get(0));
+
+        pool.releaseFrame(acquired.get(0), acquired.get(0).bitmap);
+        pool.release(other);
+        pool.release(admission);
+        assertEquals(0, stat(pool, "inUseBytes"));
+    }
+
+    /**
+     * Each decode holds a large image while it works through frames; before admissions, every
+     * decode could reserve its image and then wait forever for frame memory
+     */
+    @Test
+    public void concurrentDecodesOnSmallBudgetAllComplete() throws Exception {
+        final long image = FRAME * 2;
+        final DecodeMemoryPool pool = new DecodeMemoryPool(image + FRAME * 2, 5000);
+        final int decodes = 6;
+        final int framesPerDecode = 4;
+        final int workersPerDecode = 3;
+        final AtomicInteger frames = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int d = 0; d < decodes; d++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        final DecodeMemoryPool.Admission admission = pool.admit(image, FRAME);
+                        try {
+                            List<Thread> workers = new ArrayList<>();
+                            for (int w = 0; w < workersPerDecode; w++) {
+                                workers.add(new Thread(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        try {
+                                            for (int f = 0; f < framesPerDecode; f++) {
+                                                DecodeMemoryPool.FrameMemory frame =
+                                                        pool.acquireFrame(SIDE, SIDE, BUFFER, admission);
+                                                Thread.sleep(1);
+                                                pool.releaseBitmap(frame, frame.bitmap);
+                                                pool.releaseBuffer(frame);
+                                                frames.incrementAndGet();
+                                            }
+                                        } catch (InterruptedException | IllegalStateException e) {
+                                            failures.incrementAndGet();
+                                        }
+                                    }
+                                }));
+                            }
+                            for (Thread worker : workers) {
+                                worker.start();
+                            }
+                            for (Thread worker : workers) {
+                                worker.join();
+                            }
+                        } finally {
+                            pool.release(admission);
+                        }
+                    } catch (InterruptedException | IllegalStateException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(30000);
+            assertFalse(thread.isAlive());
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(decodes * workersPerDecode * framesPerDecode, frames.get());
+        JSONObject stats = pool.getStats();
+        assertEquals(0, stats.getLong("inUseBytes"));
+        assertTrue(stats.getLong("peakBytes") <= image + FRAME * 2);
+    }
+}
@@ -0,0 +1,104 @@
+package com.mccbarcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Intent;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class HardwareScanReceiverTest {
+
+    private static final String ACTION = "com.example.SCAN";
+    private static final String DATA_EXTRA = "com.symbol.datawedge.data_string";
+    private static final String FORMAT_EXTRA = "com.symbol.datawedge.label_type";
+
+    private static HardwareScanReceiver receiver(JSONObject options) throws Exception {
+        options.put("intentAction", ACTION);
+        return new HardwareScanReceiver(options, null);
+    }
+
+    private static Intent scan(String value, String labelType) {
+        Intent intent = new Intent(ACTION);
+        intent.putExtra(DATA_EXTRA, value);
+        intent.putExtra(FORMAT_EXTRA, labelType);
+        return intent;
+    }
+
+    @Test
+    public void convertsScanToCameraResultSchema() throws Exception {
+        ScanResult scan = receiver(new JSONObject()).handleIntent(scan("4006381333931", "LABEL-TYPE-EAN13"), 0);
+        assertNotNull(scan);
+        JSONObject result = scan.toJson();
+        assertEquals("4006381333931", result.getString("text"));
+        assertEquals("EAN_13", result.getString("format"));
+        assertEquals("hardware", result.getString("source"));
+        assertEquals(0, result.getInt("rejectedReads"));
+        assertTrue(result.has("timestamp"));
+        assertTrue(result.getBoolean("success"));
+    }
+
+    @Test
+    public void ignoresOtherActions() throws Exception {
+        Intent intent = scan("4006381333931", "LABEL-TYPE-EAN13");
+        intent.setAction("com.example.OTHER");
+        assertNull(receiver(new JSONObject()).handleIntent(intent, 0));
+    }
+
+    @Test
+    public void ignoresIntentsWithoutValue() throws Exception {
+        assertNull(receiver(new JSONObject()).handleIntent(new Intent(ACTION), 0));
+    }
+
+    @Test
+    public void suppressesRepeatsWithinDuplicateWindow() throws Exception {
+        HardwareScanReceiver receiver = receiver(new JSONObject().put("duplicateWindowMs", 500));
+        assertNotNull(receiver.handleIntent(scan("A1", "LABEL-TYPE-CODE128"), 0));
+        assertNull(receiver.handleIntent(scan("A1", "LABEL-TYPE-CODE128"), 300));
+        // The window slides while the trigger is held
+        assertNull(receiver.handleIntent(scan("A1", "LABEL-TYPE-CODE128"), 700));
+        assertNotNull(receiver.handleIntent(scan("B2", "LABEL-TYPE-CODE128"), 800));
+
+        assertNotNull(receiver.handleIntent(scan("A1", "LABEL-TYPE-CODE128"), 1300));
+        assertEquals(2, receiver.getSuppressedCount());
+    }
+
+    @Test
+    public void rejectsValuesFailingTheRules() throws Exception {
+        JSONArray rules = new JSONArray()
+                .put(new JSONObject().put("type", "checksum").put("algorithm", "mod10")
+                        .put("formats", new JSONArray().put("EAN_13")));
+        HardwareScanReceiver receiver = receiver(new JSONObject().put("rules", rules));
+        assertNull(receiver.handleIntent(scan("4006381333932", "LABEL-TYPE-EAN13"), 0));
+
+        ScanResult result = receiver.handleIntent(scan("4006381333931", "LABEL-TYPE-EAN13"), 100);
+        assertNotNull(result);
+        assertEquals(1, result.toJson().getInt("rejectedReads"));
+    }
+
+    @Test
+    public void emptyReceiverPermissionMeansNone() throws Exception {
+        assertNull(receiver(new JSONObject().put("receiverPermission", "")).getReceiverPermission());
+        assertEquals("com.example.permission.SCAN",
+                receiver(new JSONObject().put("receiverPermission", "com.example.permission.SCAN")).getReceiverPermission());
+    }
+
+    @Test
+    public void normalizesVendorLabelTypes() {
+        assertEquals("EAN_13", HardwareScanReceiver.normalizeFormat("LABEL-TYPE-EAN13"));
+        assertEquals("CODE_128", HardwareScanReceiver.normalizeFormat("label-type-gs1-128"));
+        assertEquals("UPC_E", HardwareScanReceiver.normalizeFormat("LABEL-TYPE-UPCE0"));
+        assertEquals("ITF", HardwareScanReceiver.normalizeFormat("LABEL-TYPE-I2OF5"));
+        assertEquals("QR_CODE", HardwareScanReceiver.normalizeFormat("QRCODE"));
+        assertEquals("MAXICODE", HardwareScanReceiver.normalizeFormat("LABEL-TYPE-MAXICODE"));
+        assertEquals("UNKNOWN", HardwareScanReceiver.normalizeFormat(null));
+        assertEquals("UNKNOWN", HardwareScanReceiver.normalizeFormat(""));
+    }
+}
@@ -0,0 +1,89 @@
+package com.mccbarcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ScanConsensusTest {
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    @Test
+    public void withoutVotingEveryValueIsAcceptedAtOnce() {
+        ScanConsensus consensus = new ScanConsensus(1, 1);
+        assertEquals(Arrays.asList("A", "B"), consensus.submit(Arrays.asList("A", "B"), 0));
+    }
+
+    @Test
+    public void valueIsAcceptedOnceItHasEnoughVotes() {
+        ScanConsensus consensus = new ScanConsensus(3, 5);
+        assertTrue(consensus.submit(Arrays.asList("A"), 0).isEmpty());
+        assertTrue(consensus.submit(Arrays.asList("A"), 30).isEmpty());
+        assertEquals(Arrays.asList("A"), consensus.submit(Arrays.asList("A"), 60));
+        assertEquals(3, consensus.getLastVotes());
+        assertEquals(60, consensus.getLastLatencyMs());
+    }
+
+    @Test
+    public void votesOutsideTheWindowExpire() {
+        ScanConsensus consensus = new ScanConsensus(2, 3);
+        consensus.submit(Arrays.asList("A"), 0);
+        consensus.submit(NONE, 30);
+        consensus.submit(NONE, 60);
+        // The first vote has been pushed out of the three frame window
+        assertTrue(consensus.submit(Arrays.asList("A"), 90).isEmpty());
+        assertEquals(Arrays.asList("A"), consensus.submit(Arrays.asList("A"), 120));
+    }
+
+    @Test
+    public void acceptedValueMustEarnItsVotesAgain() {
+        ScanConsensus consensus = new ScanConsensus(2, 5);
+        consensus.submit(Arrays.asList("A"), 0);
+        assertEquals(Arrays.asList("A"), consensus.submit(Arrays.asList("A"), 30));
+        assertTrue(consensus.submit(Arrays.asList("A"), 60).isEmpty());
+        assertEquals(Arrays.asList("A"), consensus.submit(Arrays.asList("A"), 90));
+    }
+
+    @Test
+    public void otherValuesKeepTheirVotesWhenOneIsAccepted() {
+        ScanConsensus consensus = new ScanConsensus(2, 5);
+        consensus.submit(Arrays.asList("A"), 0);
+        assertEquals(Arrays.asList("A"), consensus.submit(Arrays.asList("A", "B"), 30));
+        assertEquals(Arrays.asList("B"), consensus.submit(Arrays.asList("B"), 60));
+    }
+
+    @Test
+    public void everyValueReachingConsensusInAFrameIsReturned() {
+        ScanConsensus consensus = new ScanConsensus(2, 5);
+        consensus.submit(Arrays.asList("A", "B"), 0);
+        assertEquals(Arrays.asList("B", "A"), consensus.submit(Arrays.asList("B", "A", "B"), 30));
+    }
+
+    @Test
+    public void reportsVotesAndLatencyPerAcceptedValue() {
+        ScanConsensus consensus = new ScanConsensus(2, 5);
+        consensus.submit(Arrays.asList("A"), 0);
+        consensus.submit(Arrays.asList("B"), 30);
+        assertEquals(Arrays.asList("A", "B"), consensus.submit(Arrays.asList("A", "B"), 50));
+        assertEquals(2, consensus.getVotes("A"));
+        assertEquals(50, consensus.getLatencyMs("A"));
+        assertEquals(2, consensus.getVotes("B"));
+        assertEquals(20, consensus.getLatencyMs("B"));
+        // Only the values accepted by the latest frame are reported
+        consensus.submit(Arrays.asList("C"), 80);
+        assertEquals(0, consensus.getVotes("A"));
+    }
+
+    @Test
+    public void resetDropsAllVotes() {
+        ScanConsensus consensus = new ScanConsensus(2, 5);
+        consensus.submit(Arrays.asList("A"), 0);
+        consensus.reset();
+        assertTrue(consensus.submit(Arrays.asList("A"), 30).isEmpty());
+    }
+}
@@ -0,0 +1,165 @@
+package com.mccbarcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScanPowerSchedulerTest {
+
+    private static final long RESTORE_DELAY_MS = 1000;
+
+    private final List<String> transitions = new ArrayList<>();
+    private final FakeSource source = new FakeSource();
+    private ScanPowerScheduler scheduler;
+    private long t0;
+
+    private static class FakeSource implements ScanPowerScheduler.SignalSource {
+        ScanPowerScheduler scheduler;
+        boolean stopped;
+
+        @Override
+        public void start(ScanPowerScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        JSONObject policy = new JSONObject();
+        policy.put("lowBattery", 20);
+        policy.put("criticalBattery", 10);
+        policy.put("restoreDelayMs", RESTORE_DELAY_MS);
+        scheduler = new ScanPowerScheduler(policy, source, new ScanPowerScheduler.Listener() {
+            @Override
+            public void onPowerLevelChanged(ScanPowerScheduler.Level from, ScanPowerScheduler.Level to, String reason) {
+                transitions.add(from + "->" + to + ":" + reason);
+            }
+        });
+        scheduler.start();
+        t0 = SystemClock.elapsedRealtime();
+    }
+
+    private static void idle(long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ms));
+    }
+
+    @Test
+    public void startsSignalSource() {
+        assertSame(scheduler, source.scheduler);
+        assertEquals(ScanPowerScheduler.Level.NORMAL, scheduler.getLevel());
+    }
+
+    @Test
+    public void degradesImmediatelyToTarget() {
+        source.scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_SEVERE, t0);
+
+        // Straight to MINIMAL, no intermediate REDUCED step
+        assertEquals(ScanPowerScheduler.Level.MINIMAL, scheduler.getLevel());
+        assertEquals(1, transitions.size());
+        assertEquals("NORMAL->MINIMAL:thermal", transitions.get(0));
+    }
+
+    @Test
+    public void restoresOneLevelPerDelay() {
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_SEVERE, t0);
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_NONE, t0);
+        assertEquals(ScanPowerScheduler.Level.MINIMAL, scheduler.getLevel());
+
+        idle(RESTORE_DELAY_MS - 1);
+        assertEquals(ScanPowerScheduler.Level.MINIMAL, scheduler.getLevel());
+        idle(1);
+        assertEquals(ScanPowerScheduler.Level.REDUCED, scheduler.getLevel());
+
+        idle(RESTORE_DELAY_MS - 1);
+        assertEquals(ScanPowerScheduler.Level.REDUCED, scheduler.getLevel());
+        idle(1);
+        assertEquals(ScanPowerScheduler.Level.NORMAL, scheduler.getLevel());
+
+        idle(RESTORE_DELAY_MS * 5);
+        assertEquals(3, transitions.size());
+        assertEquals("MINIMAL->REDUCED:recovered", transitions.get(1));
+        assertEquals("REDUCED->NORMAL:recovered", transitions.get(2));
+    }
+
+    @Test
+    public void restoresRightAwayWhenLastTransitionIsOldEnough() {
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_MODERATE, t0);
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_NONE, t0 + RESTORE_DELAY_MS);
+
+        assertEquals(ScanPowerScheduler.Level.NORMAL, scheduler.getLevel());
+        assertEquals("REDUCED->NORMAL:thermal", transitions.get(1));
+    }
+
+    @Test
+    public void degradeCancelsPendingRestore() {
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_MODERATE, t0);
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_NONE, t0);
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_SEVERE, t0);
+        assertEquals(ScanPowerScheduler.Level.MINIMAL, scheduler.getLevel());
+
+        idle(RESTORE_DELAY_MS * 5);
+        assertEquals(ScanPowerScheduler.Level.MINIMAL, scheduler.getLevel());
+        assertEquals(2, transitions.size());
+    }
+
+    @Test
+    public void followsBatteryThresholds() {
+        scheduler.onBatteryChanged(20, false, t0);
+        assertEquals(ScanPowerScheduler.Level.REDUCED, scheduler.getLevel());
+        scheduler.onBatteryChanged(10, false, t0);
+        assertEquals(ScanPowerScheduler.Level.MINIMAL, scheduler.getLevel());
+        assertEquals("REDUCED->MINIMAL:battery", transitions.get(1));
+
+        // Charging lifts the battery limit, still one level per delay
+        scheduler.onBatteryChanged(10, true, t0);
+        assertEquals(ScanPowerScheduler.Level.MINIMAL, scheduler.getLevel());
+        idle(RESTORE_DELAY_MS);
+        assertEquals(ScanPowerScheduler.Level.REDUCED, scheduler.getLevel());
+        idle(RESTORE_DELAY_MS);
+        assertEquals(ScanPowerScheduler.Level.NORMAL, scheduler.getLevel());
+    }
+
+    @Test
+    public void worstSignalWins() {
+        scheduler.onBatteryChanged(15, false, t0);
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_SEVERE, t0);
+        assertEquals(ScanPowerScheduler.Level.MINIMAL, scheduler.getLevel());
+
+        // Thermal clears but the low battery still holds REDUCED
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_NONE, t0);
+        idle(RESTORE_DELAY_MS * 5);
+        assertEquals(ScanPowerScheduler.Level.REDUCED, scheduler.getLevel());
+    }
+
+    @Test
+    public void stopCancelsPendingRestore() {
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_SEVERE, t0);
+        scheduler.onThermalStatus(ScanPowerScheduler.THERMAL_STATUS_NONE, t0);
+        scheduler.stop();
+        assertTrue(source.stopped);
+
+        idle(RESTORE_DELAY_MS * 5);
+        assertEquals(ScanPowerScheduler.Level.MINIMAL, scheduler.getLevel());
+        assertEquals(1, transitions.size());
+    }
+}
@@ -0,0 +1,122 @@
+package com.mccbarcode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Rect;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScanResultBatcherTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void encodesHeaderAndRecords() {
+        byte[] raw = {0x01, (byte) 0xFF, 0x00};
+        byte[] batch = ScanResultBatcher.encode(Arrays.asList(
+                new ScanResult("0123", "EAN_13", new Rect(1, 2, 300, 40), 1000L, null),
+                new ScanResult("\u00e9", "QR_CODE", null, 1025L, raw)));
+
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        assertEquals(ScanResultBatcher.VERSION, buffer.getShort());
+        assertEquals(2, buffer.getShort());
+        assertEquals(1000.0, buffer.getDouble(), 0);
+
+        assertEquals(ScanResultBatcher.getFormatCode("EAN_13"), buffer.get());
+        assertEquals(ScanResultBatcher.FLAG_BOUNDS, buffer.get());
+        assertEquals(0, buffer.getShort());
+        assertEquals(1, buffer.getShort());
+        assertEquals(2, buffer.getShort());
+        assertEquals(300, buffer.getShort());
+        assertEquals(40, buffer.getShort());
+        assertArrayEquals("0123".getBytes(UTF_8), readBytes(buffer));
+
+        assertEquals(ScanResultBatcher.getFormatCode("QR_CODE"), buffer.get());
+        assertEquals(ScanResultBatcher.FLAG_RAW_BYTES, buffer.get());
+        assertEquals(25, buffer.getShort());
+        assertArrayEquals("\u00e9".getBytes(UTF_8), readBytes(buffer));
+        assertArrayEquals(raw, readBytes(buffer));
+
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void saturatesTimestampOffset() {
+        ByteBuffer buffer = ByteBuffer.wrap(ScanResultBatcher.encode(Arrays.asList(
+                new ScanResult("A", "CODE_128", null, 0L, null),
+                new ScanResult("B", "CODE_128", null, 100000L, null))));
+        // Skip the header, the first record and the second record's format and flags
+        buffer.position(12 + 4 + 4 + 1 + 2);
+        assertEquals(0xFFFF, buffer.getShort() & 0xFFFF);
+    }
+
+    @Test
+    public void unknownFormatUsesCodeZero() {
+        assertEquals(0, ScanResultBatcher.getFormatCode("MAXICODE"));
+        assertEquals(0, ScanResultBatcher.encode(Collections.singletonList(
+                new ScanResult("A", "MAXICODE", null, 0L, null)))[12]);
+    }
+
+    @Test
+    public void emptyBatchIsHeaderOnly() {
+        assertEquals(12, ScanResultBatcher.encode(Collections.<ScanResult>emptyList()).length);
+    }
+
+    @Test
+    public void encodesDetailsBlockBeforeText() {
+        ScanResult.Details details = new ScanResult.Details(ScanResult.SOURCE_CAMERA, 3, "macro", "2",
+                                                            120L, 45L, 2, 66L);
+        ByteBuffer buffer = ByteBuffer.wrap(ScanResultBatcher.encode(Collections.singletonList(
+                new ScanResult("ABC", "CODE_128", null, 5L, null, details))));
+        buffer.position(12);
+
+        assertEquals(ScanResultBatcher.getFormatCode("CODE_128"), buffer.get());
+        assertEquals(ScanResultBatcher.FLAG_DETAILS, buffer.get());
+        assertEquals(0, buffer.getShort());
+        assertEquals(0, buffer.get());
+        assertEquals(3, buffer.getInt());
+        assertEquals(2, buffer.getShort());
+        assertEquals(66, buffer.getInt());
+        assertEquals(120, buffer.getInt());
+        assertEquals(45, buffer.getInt());
+        assertArrayEquals("macro".getBytes(UTF_8), readShortBytes(buffer));
+        assertArrayEquals("2".getBytes(UTF_8), readShortBytes(buffer));
+        assertArrayEquals("ABC".getBytes(UTF_8), readBytes(buffer));
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void hardwareDetailsHaveNoLens() {
+        ScanResult.Details details = new ScanResult.Details(ScanResult.SOURCE_HARDWARE, 0, null, null, 0L, 0L, 0, 0L);
+        ByteBuffer buffer = ByteBuffer.wrap(ScanResultBatcher.encode(Collections.singletonList(
+                new ScanResult("A", "EAN_13", null, 0L, null, details))));
+        buffer.position(12 + 4);
+
+        assertEquals(1, buffer.get());
+        buffer.position(buffer.position() + 4 + 2 + 4 + 4 + 4);
+        assertEquals(0, buffer.getShort());
+        assertEquals(0, buffer.getShort());
+        assertArrayEquals("A".getBytes(UTF_8), readBytes(buffer));
+    }
+
+    private static byte[] readShortBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
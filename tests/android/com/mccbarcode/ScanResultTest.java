@@ -0,0 +1,43 @@
+package com.mccbarcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.graphics.Rect;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScanResultTest {
+
+    @Test
+    public void continuousResultCarriesTheSingleScanFields() throws Exception {
+        ScanResult.Details details = new ScanResult.Details(ScanResult.SOURCE_CAMERA, 4, "ultraWide", "3",
+                                                            210L, 80L, 3, 95L);
+        JSONObject json = new ScanResult("ABC", "QR_CODE", new Rect(1, 2, 3, 4), 1000L, null, details).toJson();
+
+        assertEquals("camera", json.getString("source"));
+        assertEquals(4, json.getInt("rejectedReads"));
+        assertEquals("ultraWide", json.getString("lens"));
+        assertEquals("3", json.getString("lensId"));
+        assertEquals(210, json.getLong("cameraOpenMs"));
+        assertEquals(80, json.getLong("lensSwitchMs"));
+        assertEquals(3, json.getInt("consensusVotes"));
+        assertEquals(95, json.getLong("consensusLatencyMs"));
+    }
+
+    @Test
+    public void leavesOutConsensusWhenNotVotedAndLensForHardware() throws Exception {
+        ScanResult.Details details = new ScanResult.Details(ScanResult.SOURCE_HARDWARE, 0, null, null, 0L, 0L, 0, 0L);
+        JSONObject json = new ScanResult("ABC", "EAN_13", null, 1000L, null, details).toJson();
+
+        assertEquals("hardware", json.getString("source"));
+        assertEquals(0, json.getInt("rejectedReads"));
+        assertFalse(json.has("lens"));
+        assertFalse(json.has("consensusVotes"));
+        assertFalse(json.has("bounds"));
+    }
+}
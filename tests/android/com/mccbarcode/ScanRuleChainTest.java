@@ -0,0 +1,99 @@
+package com.mccbarcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScanRuleChainTest {
+
+    @Test
+    public void mod10AcceptsValidCheckDigits() {
+        assertTrue(ScanRuleChain.isValidMod10("4006381333931"));  // EAN-13
+        assertTrue(ScanRuleChain.isValidMod10("036000291452"));   // UPC-A
+        assertTrue(ScanRuleChain.isValidMod10("96385074"));       // EAN-8
+    }
+
+    @Test
+    public void mod10RejectsWrongCheckDigit() {
+        assertFalse(ScanRuleChain.isValidMod10("4006381333932"));
+        assertFalse(ScanRuleChain.isValidMod10("036000291450"));
+    }
+
+    @Test
+    public void mod10RejectsNonDigitsAndShortValues() {
+        assertFalse(ScanRuleChain.isValidMod10("40063813A3931"));
+        assertFalse(ScanRuleChain.isValidMod10("400638133393X"));
+        assertFalse(ScanRuleChain.isValidMod10("4"));
+        assertFalse(ScanRuleChain.isValidMod10(""));
+    }
+
+    @Test
+    public void mod43AcceptsValidCheckCharacter() {
+        assertTrue(ScanRuleChain.isValidMod43("CODE39W"));
+        assertTrue(ScanRuleChain.isValidMod43("ABC-123W"));
+        assertTrue(ScanRuleChain.isValidMod43("W1X"));
+    }
+
+    @Test
+    public void mod43RejectsWrongCheckCharacter() {
+        assertFalse(ScanRuleChain.isValidMod43("CODE39X"));
+        assertFalse(ScanRuleChain.isValidMod43("ABC-1230"));
+    }
+
+    @Test
+    public void mod43RejectsCharactersOutsideCode39() {
+        assertFalse(ScanRuleChain.isValidMod43("code39W"));
+        assertFalse(ScanRuleChain.isValidMod43("A"));
+    }
+
+    @Test
+    public void expandsUpcEForEveryLastDigitRule() {
+        // Last data digit 0-2: manufacturer keeps it, product gets digits 3-5
+        assertEquals("042100005264", ScanRuleChain.expandUpcE("04252614"));
+        // 3: three manufacturer digits
+        assertEquals("012300000451", ScanRuleChain.expandUpcE("01234531"));
+        // 4: four manufacturer digits
+        assertEquals("012340000008", ScanRuleChain.expandUpcE("01234048"));
+        // 5-9: five manufacturer digits, the last digit is the product
+        assertEquals("012345000065", ScanRuleChain.expandUpcE("01234565"));
+    }
+
+    @Test
+    public void expandUpcERejectsOtherValues() {
+        assertNull(ScanRuleChain.expandUpcE("0123456"));
+        assertNull(ScanRuleChain.expandUpcE("21234565"));
+        assertNull(ScanRuleChain.expandUpcE("0123A565"));
+    }
+
+    @Test
+    public void upcEIsCheckedOnItsExpandedForm() {
+        assertTrue(ScanRuleChain.isValidUpcE("04252614"));
+        assertTrue(ScanRuleChain.isValidUpcE("01234531"));
+        assertTrue(ScanRuleChain.isValidUpcE("01234048"));
+        assertTrue(ScanRuleChain.isValidUpcE("01234565"));
+        assertTrue(ScanRuleChain.isValidUpcE("12345601"));
+        assertFalse(ScanRuleChain.isValidUpcE("04252615"));
+        // A plain mod-10 over the eight digits gets this one wrong
+        assertFalse(ScanRuleChain.isValidMod10("04252614"));
+    }
+
+    @Test
+    public void mod10RuleUsesUpcEExpansionOnlyForUpcE() throws Exception {
+        ScanRuleChain chain = ScanRuleChain.fromJson(new JSONArray().put(new JSONObject()
+                .put("type", "checksum").put("algorithm", "mod10")
+                .put("formats", new JSONArray().put("UPC_E").put("EAN_8"))));
+        assertTrue(chain.accept("04252614", "UPC_E"));
+        assertFalse(chain.accept("04252615", "UPC_E"));
+        assertTrue(chain.accept("96385074", "EAN_8"));
+        assertFalse(chain.accept("04252614", "EAN_8"));
+        assertEquals(2, chain.getRejectedCount());
+    }
+}
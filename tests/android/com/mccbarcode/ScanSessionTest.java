@@ -0,0 +1,183 @@
+package com.mccbarcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScanSessionTest {
+
+    private final List<String> events = new ArrayList<>();
+    private ScanSession session;
+
+    private ScanSession start(long timeoutMs, long idleTimeoutMs) {
+        session = new ScanSession(timeoutMs, idleTimeoutMs, new ScanSession.Listener() {
+            @Override
+            public void onSuspend() {
+                events.add("suspend");
+            }
+
+            @Override
+            public void onResume() {
+                events.add("resume");
+            }
+
+            @Override
+            public void onEnd(String reason) {
+                events.add("end:" + reason);
+            }
+        });
+        session.start();
+        return session;
+    }
+
+    private static void idle(long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(ms));
+    }
+
+    @After
+    public void tearDown() {
+        // Session counters are static; never leave a session running for the next test
+        if (session != null) {
+            session.cancel();
+        }
+    }
+
+    @Test
+    public void timeoutEndsSession() {
+        start(1000, 0);
+        idle(999);
+        assertEquals(ScanSession.State.ACTIVE, session.getState());
+        idle(1);
+        assertEquals(ScanSession.State.ENDED, session.getState());
+        assertEquals(ScanSession.END_TIMEOUT, session.getEndReason());
+        assertEquals(Arrays.asList("end:timeout"), events);
+    }
+
+    @Test
+    public void resultRestartsTimeout() {
+        start(1000, 0);
+        idle(800);
+        session.onResult();
+        idle(800);
+        assertEquals(ScanSession.State.ACTIVE, session.getState());
+        idle(200);
+        assertEquals(ScanSession.State.ENDED, session.getState());
+    }
+
+    @Test
+    public void pausedTimeoutContinuesWithRemainingTime() {
+        start(1000, 0);
+        idle(400);
+        session.pauseTimeout();
+        idle(5000);
+        assertEquals(ScanSession.State.ACTIVE, session.getState());
+
+        session.resumeTimeout();
+        idle(599);
+        assertEquals(ScanSession.State.ACTIVE, session.getState());
+        idle(1);
+        assertEquals(ScanSession.END_TIMEOUT, session.getEndReason());
+    }
+
+    @Test
+    public void resultWhilePausedRestartsFullTimeout() {
+        start(1000, 0);
+        idle(400);
+        session.pauseTimeout();
+        session.onResult();
+        session.resumeTimeout();
+        idle(999);
+        assertEquals(ScanSession.State.ACTIVE, session.getState());
+        idle(1);
+        assertEquals(ScanSession.State.ENDED, session.getState());
+    }
+
+    @Test
+    public void idleSuspendsAndResumeRestartsTimer() {
+        start(0, 500);
+        idle(499);
+        assertEquals(ScanSession.State.ACTIVE, session.getState());
+        idle(1);
+        assertEquals(ScanSession.State.SUSPENDED, session.getState());
+        assertEquals(1, session.getSuspendCount());
+
+        session.resume();
+        assertTrue(session.isActive());
+        idle(499);
+        assertTrue(session.isActive());
+        idle(1);
+        assertEquals(ScanSession.State.SUSPENDED, session.getState());
+        assertEquals(2, session.getSuspendCount());
+        assertEquals(Arrays.asList("suspend", "resume", "suspend"), events);
+    }
+
+    @Test
+    public void pausedTimeoutStillSuspendsWhenIdle() {
+        start(1000, 500);
+        session.pauseTimeout();
+        idle(500);
+        assertEquals(ScanSession.State.SUSPENDED, session.getState());
+        idle(5000);
+        assertEquals(ScanSession.State.SUSPENDED, session.getState());
+    }
+
+    @Test
+    public void timeoutEndsSuspendedSession() {
+        start(1000, 500);
+        idle(1000);
+        assertEquals(ScanSession.State.ENDED, session.getState());
+        assertEquals(Arrays.asList("suspend", "end:timeout"), events);
+    }
+
+    @Test
+    public void onlyFirstEndIsReported() {
+        start(1000, 500);
+        session.cancel();
+        session.end(ScanSession.END_RESULT);
+        idle(5000);
+        assertEquals(ScanSession.END_CANCELLED, session.getEndReason());
+        assertEquals(Arrays.asList("end:cancelled"), events);
+    }
+
+    @Test
+    public void nothingLeaksOnceSessionsEnd() throws Exception {
+        start(0, 0);
+        ScanSession.acquired(ScanSession.Resource.CAMERA);
+        ScanSession.acquired(ScanSession.Resource.DETECTOR);
+        JSONObject running = ScanSession.getStats();
+        assertEquals(1, running.getJSONObject("cameras").getInt("live"));
+        assertEquals(0, running.getInt("leaked"));
+
+        ScanSession.released(ScanSession.Resource.CAMERA);
+        ScanSession.released(ScanSession.Resource.DETECTOR);
+        session.end(ScanSession.END_RESULT);
+        JSONObject ended = ScanSession.getStats();
+        assertEquals(0, ended.getJSONObject("sessions").getInt("live"));
+        assertEquals(0, ended.getInt("leaked"));
+    }
+
+    @Test
+    public void resourceHeldAfterEndCountsAsLeaked() throws Exception {
+        start(0, 0);
+        ScanSession.acquired(ScanSession.Resource.TONE_GENERATOR);
+        session.end(ScanSession.END_RESULT);
+        assertEquals(1, ScanSession.getStats().getInt("leaked"));
+
+        ScanSession.released(ScanSession.Resource.TONE_GENERATOR);
+        assertEquals(0, ScanSession.getStats().getInt("leaked"));
+    }
+}
@@ -142,7 +142,21 @@ barcodeScanner.init = function(license, successCallback, errorCallback) {
  * @param {boolean} [options.rotateCamera] - Rotate camera 180 degrees
  * @param {boolean} [options.torch] - Enable torch/flashlight
  * @param {string} [options.resolution] - Camera resolution
- * @param {number} [options.timeout] - Scan timeout in milliseconds
+ * @param {number} [options.timeout] - End the scan after this many ms without a result, 0 for no limit
+ * @param {number} [options.idleTimeout] - Close the camera after this many ms without a result, keeping
+ *     the scanner open; tap the preview or call resumeScanning() to continue (default 0, disabled)
+ * @param {Array<Object>} [options.rules] - Native validation rules applied before a read is accepted,
+ *     e.g. [{type: 'checksum', algorithm: 'mod10', formats: ['EAN_13']}, {type: 'length', min: 8, max: 20},
+ *     {type: 'regex', pattern: '^[0-9]+$'}, {type: 'prefix', values: ['01']}]
+ * @param {Object} [options.consensus] - Require a value in `votes` of the last `frames` frames before
+ *     it is accepted, e.g. {votes: 3, frames: 5}
+ * @param {string} [options.lens] - Camera lens: 'main', 'ultraWide', 'macro', 'telephoto', 'front' or 'auto'
+ *     (see getCameras()); missing lenses fall back to 'main'
+ * @param {number} [options.lensSwitchTimeout] - In 'auto' mode, ms the lens may fail to focus before
+ *     switching between the main and the closest-focusing lens (default 3000)
+ * @param {boolean} [options.returnRawBytes] - Also return the exact encoded bytes as result.rawBytes (ArrayBuffer)
+ * @param {boolean} [options.powerAware] - Lower preview size and frame rate under thermal pressure or low battery
+ * @param {Object} [options.powerPolicy] - {lowBattery: 20, criticalBattery: 10, restoreDelayMs: 30000}
  * @param {Function} successCallback - Success callback function
  * @param {Function} errorCallback - Error callback function
  */
@@ -155,13 +169,32 @@ barcodeScanner.scan = function(options, successCallback, errorCallback) {
         scanOptions.barcodeFormats = Object.assign({}, barcodeScanner.DefaultOptions.barcodeFormats, options.barcodeFormats);
     }
     
-    exec(successCallback, errorCallback, "BarcodeScanner", "scan", [scanOptions]);
+    exec(withRawBytes(successCallback), errorCallback, "BarcodeScanner", "scan", [scanOptions]);
 };
 
+/**
+ * Results with raw bytes arrive as a multipart message: the result object and an ArrayBuffer
+ * @private
+ */
+function withRawBytes(callback) {
+    return function(result, rawBytes) {
+        if (rawBytes instanceof ArrayBuffer && result && typeof result === 'object') {
+            result.rawBytes = rawBytes;
+        }
+        callback && callback(result);
+    };
+}
+
 /**
  * Decode barcode from base64 image data
  * @param {string} base64Data - Base64 encoded image data
  * @param {Object} options - Decoding options
+ * @param {boolean} [options.tiled] - Decode the full-resolution image in overlapping tiles (for small codes in large photos)
+ * @param {number} [options.tileSize] - Tile edge length in pixels (default 1024)
+ * @param {number} [options.tileOverlap] - Tile overlap as a fraction of tileSize (default 0.2, max 0.5)
+ * @param {number} [options.tileParallelism] - Number of tiles decoded in parallel (default: CPU count)
+ * @param {number} [options.maxDimension] - Longest edge the image is downscaled to when not tiled (default 2048)
+ * Decodes share a native memory budget; when it is exhausted, further decodes wait for memory to free up.
  * @param {Function} successCallback - Success callback function
  * @param {Function} errorCallback - Error callback function
  */
@@ -172,7 +205,12 @@ barcodeScanner.decode = function(base64Data, options, successCallback, errorCall
 
 /**
  * Start continuous scanning
- * @param {Object} options - Scanning options
+ * @param {Object} options - Scanning options (see scan())
+ * @param {number} [options.duplicateWindowMs] - Don't report the same value again within this window (default 1000);
+ *     every code in view is reported, each value is suppressed on its own
+ * @param {boolean} [options.binaryTransport] - Batch results into compact binary messages (for high scan rates)
+ * @param {number} [options.batchWindowMs] - How long results are collected per binary batch (default 50);
+ *     a batch is sent early once it holds 64 results
  * @param {Function} onScanned - Callback function called when barcode is detected
  * @param {Function} errorCallback - Error callback function
  */
@@ -184,7 +222,124 @@ barcodeScanner.startScanning = function(options, onScanned, errorCallback) {
         scanOptions.barcodeFormats = Object.assign({}, barcodeScanner.DefaultOptions.barcodeFormats, options.barcodeFormats);
     }
     
-    exec(onScanned, errorCallback, "BarcodeScanner", "startScanning", [scanOptions]);
+    var onMessage = withRawBytes(onScanned);
+    if (scanOptions.binaryTransport) {
+        // Unpack each batch so onScanned still sees one plain object per barcode
+        onMessage = function(message) {
+            if (message instanceof ArrayBuffer) {
+                barcodeScanner.decodeResultBatch(message).forEach(function(result) {
+                    onScanned(result);
+                });
+            } else {
+                onScanned(message);
+            }
+        };
+    }
+    
+    exec(onMessage, errorCallback, "BarcodeScanner", "startScanning", [scanOptions]);
+};
+
+// Format codes used in binary result batches; keep in sync with ScanResultBatcher.FORMATS
+var RESULT_FORMATS = [
+    'UNKNOWN', 'DATA_MATRIX', 'QR_CODE', 'CODE_128', 'CODE_39', 'EAN_13', 'EAN_8',
+    'UPC_A', 'UPC_E', 'PDF417', 'AZTEC', 'CODABAR', 'ITF'
+];
+
+function decodeUtf8(bytes) {
+    if (typeof TextDecoder !== 'undefined') {
+        return new TextDecoder('utf-8').decode(bytes);
+    }
+    // Older WebViews: escape the bytes and let decodeURIComponent do the UTF-8 work
+    var encoded = '';
+    for (var i = 0; i < bytes.length; i++) {
+        encoded += '%' + ('0' + bytes[i].toString(16)).slice(-2);
+    }
+    return decodeURIComponent(encoded);
+}
+
+/**
+ * Decode a binary result batch sent while continuous scanning with binaryTransport.
+ * Layout (big-endian): uint16 version, uint16 count, float64 base timestamp, then per result
+ * uint8 format code, uint8 flags, uint16 timestamp offset, [flags & 1: int16 left, top, right, bottom],
+ * [flags & 4: uint8 source, uint32 rejectedReads, uint16 consensusVotes, uint32 consensusLatencyMs,
+ * uint32 cameraOpenMs, uint32 lensSwitchMs, uint16 length + UTF-8 lens, uint16 length + UTF-8 lensId],
+ * uint32 text length, UTF-8 text, [flags & 2: uint32 raw length, raw bytes].
+ * @param {ArrayBuffer} buffer - Batch received from the plugin
+ * @returns {Array<Object>} Results shaped like JSON continuous results
+ */
+barcodeScanner.decodeResultBatch = function(buffer) {
+    var view = new DataView(buffer);
+    var version = view.getUint16(0);
+    if (version !== 1 && version !== 2) {
+        throw new Error('Unsupported result batch version: ' + version);
+    }
+    var count = view.getUint16(2);
+    var base = view.getFloat64(4);
+    var offset = 12;
+    var results = [];
+    
+    for (var i = 0; i < count; i++) {
+        var formatCode = view.getUint8(offset);
+        var flags = view.getUint8(offset + 1);
+        var result = {
+            format: RESULT_FORMATS[formatCode] || 'UNKNOWN',
+            timestamp: base + view.getUint16(offset + 2),
+            source: 'camera',
+            success: true
+        };
+        offset += 4;
+        
+        if (flags & 1) {
+            result.bounds = {
+                left: view.getInt16(offset),
+                top: view.getInt16(offset + 2),
+                right: view.getInt16(offset + 4),
+                bottom: view.getInt16(offset + 6)
+            };
+            offset += 8;
+        }
+        
+        if (flags & 4) {
+            result.source = view.getUint8(offset) === 1 ? 'hardware' : 'camera';
+            result.rejectedReads = view.getUint32(offset + 1);
+            var votes = view.getUint16(offset + 5);
+            if (votes > 0) {
+                result.consensusVotes = votes;
+                result.consensusLatencyMs = view.getUint32(offset + 7);
+            }
+            var cameraOpenMs = view.getUint32(offset + 11);
+            var lensSwitchMs = view.getUint32(offset + 15);
+            offset += 19;
+            var lensLength = view.getUint16(offset);
+            var lens = decodeUtf8(new Uint8Array(buffer, offset + 2, lensLength));
+            offset += 2 + lensLength;
+            var lensIdLength = view.getUint16(offset);
+            var lensId = decodeUtf8(new Uint8Array(buffer, offset + 2, lensIdLength));
+            offset += 2 + lensIdLength;
+            if (lensLength > 0) {
+                result.lens = lens;
+                result.lensId = lensId;
+                result.cameraOpenMs = cameraOpenMs;
+                result.lensSwitchMs = lensSwitchMs;
+            }
+        }
+        
+        var textLength = view.getUint32(offset);
+        offset += 4;
+        result.text = decodeUtf8(new Uint8Array(buffer, offset, textLength));
+        offset += textLength;
+        
+        if (flags & 2) {
+            var rawLength = view.getUint32(offset);
+            offset += 4;
+            result.rawBytes = buffer.slice(offset, offset + rawLength);
+            result.rawBytesLength = rawLength;
+            offset += rawLength;
+        }
+        
+        results.push(result);
+    }
+    return results;
 };
 
 /**
@@ -253,6 +408,15 @@ barcodeScanner.getResolution = function(successCallback, errorCallback) {
     exec(successCallback, errorCallback, "BarcodeScanner", "getResolution", []);
 };
 
+/**
+ * List the device cameras with their lens type, focal length and closest focus distance
+ * @param {Function} successCallback - Called with an array of {id, lens, focalLength, minFocusDistanceCm, physical}
+ * @param {Function} errorCallback - Error callback function
+ */
+barcodeScanner.getCameras = function(successCallback, errorCallback) {
+    exec(successCallback, errorCallback, "BarcodeScanner", "getCameras", []);
+};
+
 /**
  * Check if device has camera
  * @param {Function} successCallback - Success callback function
@@ -280,6 +444,67 @@ barcodeScanner.checkPermissions = function(successCallback, errorCallback) {
     exec(successCallback, errorCallback, "BarcodeScanner", "checkPermissions", []);
 };
 
+/**
+ * Receive scans from a built-in hardware imager that broadcasts results as Intents (DataWedge-style).
+ * Results use the same schema as camera scans with source set to 'hardware'. While startScanning() is
+ * running they are delivered to its onScanned callback instead, batched like camera detections.
+ * @param {Object} options - Hardware scanner options
+ * @param {string} [options.intentAction] - Broadcast action configured in the imager profile
+ * @param {string} [options.intentCategory] - Optional broadcast category
+ * @param {string} [options.dataExtra] - Intent extra holding the scanned value
+ * @param {string} [options.formatExtra] - Intent extra holding the symbology / label type
+ * @param {number} [options.duplicateWindowMs] - Ignore the same value repeated within this window (default 1000)
+ * @param {string} [options.receiverPermission] - Permission the broadcaster must hold; without it any app
+ *     can send fake scans to the exported receiver
+ * @param {Array<Object>} [options.rules] - Validation rules, see scan()
+ * @param {Function} onScanned - Called for every accepted hardware scan
+ * @param {Function} errorCallback - Error callback function
+ */
+barcodeScanner.startHardwareScanner = function(options, onScanned, errorCallback) {
+    exec(onScanned, errorCallback, "BarcodeScanner", "startHardwareScanner", [options || {}]);
+};
+
+/**
+ * Stop receiving hardware imager scans
+ * @param {Function} successCallback - Success callback function
+ * @param {Function} errorCallback - Error callback function
+ */
+barcodeScanner.stopHardwareScanner = function(successCallback, errorCallback) {
+    exec(successCallback, errorCallback, "BarcodeScanner", "stopHardwareScanner", []);
+};
+
+/**
+ * Get decode() memory statistics: budget, resident, in-use, pooled and peak bytes, pool reuse and wait counts
+ * @param {Function} successCallback - Called with the stats object
+ * @param {Function} errorCallback - Error callback function
+ */
+barcodeScanner.getDecodeStats = function(successCallback, errorCallback) {
+    exec(successCallback, errorCallback, "BarcodeScanner", "getDecodeStats", []);
+};
+
+/**
+ * Get the scan session state and native resource counters
+ * Each of sessions, cameras (open devices), cameraSources (camera instances, including ones replaced by a
+ * lens or power level switch), detectors and toneGenerators has acquired, released and live counts;
+ * leaked is the number of resources still held while no session is running
+ * @param {Function} successCallback - Called with the stats object
+ * @param {Function} errorCallback - Error callback function
+ */
+barcodeScanner.getSessionStats = function(successCallback, errorCallback) {
+    exec(successCallback, errorCallback, "BarcodeScanner", "getSessionStats", []);
+};
+
+/**
+ * Receive power level transitions of powerAware scan sessions
+ * @param {Function} onEvent - Called with {type, from, to, reason, thermalStatus, batteryLevel, charging,
+ *     previewSize, fps, cameraRestarted, switchMs, timestamp} for every transition; the camera is only
+ *     restarted when the preview size or frame rate changes
+ * @param {Function} errorCallback - Error callback function
+ */
+barcodeScanner.watchPowerEvents = function(onEvent, errorCallback) {
+    exec(onEvent, errorCallback, "BarcodeScanner", "watchPowerEvents", []);
+};
+
 /**
  * Destroy the scanner instance
  * @param {Function} successCallback - Success callback function